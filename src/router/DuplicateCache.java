@@ -0,0 +1,138 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * DuplicateCache.java
+ *
+ * Detects duplicated and stale ROUTE packets before decoding them
+ *
+ * Created on 17 de Outubro de 2026, 06:16
+ */
+
+package router;
+
+/**
+ * Cache with the sequence number and the checksum of the last ROUTE packet
+ * accepted from each origin router in each area. It is checked after
+ * reading the ROUTE header, so the copies received through several paths
+ * and the old packets are dropped without decoding the vector. An entry is
+ * only used until the TTL of the packet elapses, as the RouterInfo stored.
+ */
+public class DuplicateCache {
+    /** Number of areas ('0'-'9') */
+    private final static int N_AREAS = 10;
+
+    /** Result of check: packet must be processed */
+    public final static int NEW = 0;
+    /** Result of check: same sequence number, the contents must be compared
+     *  with is_duplicate */
+    public final static int SAME_SEQ = 1;
+    /** Result of check: older sequence number */
+    public final static int STALE = 2;
+
+    /** Sequence number of the last packet accepted */
+    private final int[][] seq = new int[N_AREAS][Router.N_ADDR];
+    /** Checksum of the vector of the last packet accepted */
+    private final long[][] sum = new long[N_AREAS][Router.N_ADDR];
+    /** Expiration time of each entry (ms, Router.now_ms); 0 if empty */
+    private final long[][] expires = new long[N_AREAS][Router.N_ADDR];
+
+    /**
+     * Check the sequence number of a ROUTE packet against the cache, which
+     * only needs the header
+     * @param area    area
+     * @param origin  origin router
+     * @param s       sequence number
+     * @return NEW, SAME_SEQ or STALE
+     */
+    public synchronized int check(char area, char origin, int s) {
+        int a = area - '0';
+        int o = Router.addr_index(origin);
+        if ((a < 0) || (a >= N_AREAS) || (o < 0) || (Router.now_ms() > expires[a][o])) {
+            return NEW;
+        }
+        if (s < seq[a][o]) {
+            return STALE;
+        }
+        return (s == seq[a][o]) ? SAME_SEQ : NEW;
+    }
+
+    /**
+     * Test if a ROUTE packet with the sequence number in the cache (check
+     * returned SAME_SEQ) has the same contents
+     * @param area    area
+     * @param origin  origin router
+     * @param cs      checksum of the vector
+     * @return true if it is a duplicate, false otherwise
+     */
+    public synchronized boolean is_duplicate(char area, char origin, long cs) {
+        int a = area - '0';
+        int o = Router.addr_index(origin);
+        return (a >= 0) && (a < N_AREAS) && (o >= 0)
+                && (Router.now_ms() <= expires[a][o]) && (cs == sum[a][o]);
+    }
+
+    /**
+     * Store the header of a ROUTE packet accepted, if it is newer than the
+     * one in the cache
+     * @param area    area
+     * @param origin  origin router
+     * @param s       sequence number
+     * @param cs      checksum of the vector
+     * @param TTL     Time To Live (s)
+     */
+    public synchronized void update(char area, char origin, int s, long cs, int TTL) {
+        int a = area - '0';
+        int o = Router.addr_index(origin);
+        if ((a < 0) || (a >= N_AREAS) || (o < 0)) {
+            return;
+        }
+        long now = Router.now_ms();
+        if ((now <= expires[a][o]) && (s < seq[a][o])) {
+            return;
+        }
+        seq[a][o] = s;
+        sum[a][o] = cs;
+        expires[a][o] = now + TTL * 1000L;
+    }
+
+    /**
+     * Remove the entry of an origin router (e.g. when its vector expires)
+     * @param area    area
+     * @param origin  origin router
+     */
+    public synchronized void invalidate(char area, char origin) {
+        int a = area - '0';
+        int o = Router.addr_index(origin);
+        if ((a >= 0) && (a < N_AREAS) && (o >= 0)) {
+            expires[a][o] = 0;
+        }
+    }
+
+    /**
+     * Remove all the entries
+     */
+    public synchronized void clear() {
+        for (int a = 0; a < N_AREAS; a++) {
+            for (int o = 0; o < Router.N_ADDR; o++) {
+                expires[a][o] = 0;
+            }
+        }
+    }
+
+    /**
+     * Calculate the checksum of part of a packet (64 bit FNV-1a)
+     * @param buf  packet buffer
+     * @param off  first byte
+     * @param len  number of bytes
+     * @return checksum
+     */
+    public static long checksum(byte[] buf, int off, int len) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = off; i < off + len; i++) {
+            h ^= buf[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -19,6 +19,8 @@ import java.io.*;
  */
 public class Entry {
     
+    /** Length of an encoded Entry (bytes): destination and distance */
+    public final static int ENTRY_LEN= 2+4;
     /** Destination */
     public char dest;
     /** Distance */
@@ -50,12 +52,12 @@ public class Entry {
     }
     
     /**
-     * Create a new instance of Entry from an input stream
-     * @param dis  input stream
+     * Create a new instance of Entry from a packet being decoded
+     * @param pc  packet codec
      * @throws java.io.IOException 
      */
-    public Entry(DataInputStream dis) throws java.io.IOException {
-        readEntry(dis);
+    public Entry(PacketCodec pc) throws java.io.IOException {
+        readEntry(pc);
     }
  
     /**
@@ -94,6 +96,71 @@ public class Entry {
         return (e!=null) && (dest==e.dest) && (e.dist == dist);
     }
     
+    /**
+     * Return a 64 bit hash of the entry contents
+     * @return hash value
+     */
+    public long hash64() {
+        return mix64(((long)dest << 32) | (dist & 0xffffffffL));
+    }
+    
+    /**
+     * Return an order independent 64 bit fingerprint of a vector, the sum
+     *  of the hashes of its elements. It can be updated incrementally by 
+     *  subtracting the hash of an element removed and adding the new one.
+     * @param vec  Entry vector
+     * @return fingerprint, or 0 if vec is null
+     */
+    public static long fingerprint(Entry[] vec) {
+        long fp= 0;
+        if (vec != null) {
+            for (Entry e : vec) {
+                fp+= e.hash64();
+            }
+        }
+        return fp;
+    }
+    
+    /**
+     * Test if two vectors have the same entries, ignoring their order
+     * @param a  Entry vector
+     * @param b  Entry vector
+     * @return true if equal, false otherwise
+     */
+    public static boolean equal_vec(Entry[] a, Entry[] b) {
+        if ((a == null) || (b == null)) {
+            return a == b;
+        }
+        if ((a.length != b.length) || (fingerprint(a) != fingerprint(b))) {
+            return false;
+        }
+        // Same fingerprint - confirm each entry
+        for (Entry e : a) {
+            boolean found= false;
+            for (Entry f : b) {
+                if ((e.dest == f.dest) && (e.dist == f.dist)) {
+                    found= true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Mix the bits of a value (SplitMix64 finalizer)
+     * @param z  value
+     * @return mixed value
+     */
+    public static long mix64(long z) {
+        z= (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z= (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+    
     /**
      * Compares to the destination field of another object
      * @param e  an Entry object
@@ -104,26 +171,26 @@ public class Entry {
     }
     
     /**
-     * Write the Entry content to a DataOutputStream
-     * @param dos  output stream
+     * Write the Entry content to a packet being encoded
+     * @param pc  packet codec
      * @throws java.io.IOException 
      */
-    public void writeEntry(DataOutputStream dos) throws java.io.IOException {
-        dos.writeChar(dest);
-        dos.writeInt(dist);
+    public void writeEntry(PacketCodec pc) throws java.io.IOException {
+        pc.put_char(dest);
+        pc.put_int(dist);
     }
     
     /**
-     * Read the Entry contents from one DataInputStream
-     * @param dis  input stream
+     * Read the Entry contents from a packet being decoded
+     * @param pc  packet codec
      * @throws java.io.IOException 
      */
-    public final void readEntry(DataInputStream dis) throws java.io.IOException {
-        dest= dis.readChar();
+    public final void readEntry(PacketCodec pc) throws java.io.IOException {
+        dest= pc.get_char();
         if (!Character.isUpperCase(dest)) {
             throw new IOException("Invalid address '"+dest+"'");
         }            
-        dist= dis.readInt();
+        dist= pc.get_int();
         if ((dist<0) || (dist>Router.MAX_DISTANCE)) {
             throw new IOException("Invalid distance '"+dist+"'");
         }
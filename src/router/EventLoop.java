@@ -0,0 +1,391 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * EventLoop.java
+ *
+ * Thread that serves the sockets and the timers of the router
+ *
+ * Created on 17 de Outubro de 2026, 06:33
+ */
+
+package router;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+
+/**
+ * Single non-blocking event loop that replaces the unicast and the multicast
+ * receive threads. The unicast socket and the multicast group membership
+ * are DatagramChannels registered in one Selector, each one with the
+ * PacketDispatcher of its packets; the LoopTimer objects are run by the
+ * same thread, which sleeps in the Selector until the next timer is due.
+ * At each wakeup up to MAX_DRAIN datagrams are read from each ready
+ * channel into a direct buffer, and handled in one batch holding the main
+ * lock. The packets are sent through the unicast channel (send and
+ * send_group), as the channels in non-blocking mode cannot be used through
+ * their DatagramSocket adaptor.
+ */
+public class EventLoop extends Thread {
+    /** Receive buffer size of the sockets (bytes) */
+    public final static int RCV_BUF_LEN = 1 << 20;
+    /** Send buffer size of the unicast socket (bytes) */
+    public final static int SND_BUF_LEN = 1 << 18;
+    /** Maximum number of datagrams read from a channel per wakeup */
+    public final static int MAX_DRAIN = 64;
+
+    volatile boolean keepRunning = true;
+    /** Main window */
+    private final Router win;
+    /** Selector with all the channels */
+    private final Selector selector;
+    /** Unicast channel */
+    private final DatagramChannel uc;
+    /** Multicast channel, or null if the group was not joined */
+    private DatagramChannel mc;
+    /** Membership of the multicast group */
+    private MembershipKey membership;
+    /** Multicast group address and port */
+    private InetSocketAddress group;
+    /** Receive buffer */
+    private final ByteBuffer rbuf = ByteBuffer.allocateDirect(PacketCodec.MAX_PACKET_LEN);
+    /** Codec of the packets received */
+    private final PacketCodec pc = new PacketCodec();
+    /** Timers running */
+    private final ArrayList<LoopTimer> timers = new ArrayList<>();
+
+    /**
+     * Constructor - creates the unicast socket
+     * @param port        unicast port number
+     * @param dispatcher  handlers of the packets received by the unicast socket
+     * @param win         main window reference
+     * @throws IOException if the socket cannot be created (e.g. the port is
+     *  in use)
+     */
+    EventLoop(int port, PacketDispatcher dispatcher, Router win) throws IOException {
+        super("EventLoop");
+        this.win = win;
+        DatagramChannel c = DatagramChannel.open();
+        Selector s = null;
+        try {
+            c.setOption(StandardSocketOptions.SO_RCVBUF, RCV_BUF_LEN);
+            c.setOption(StandardSocketOptions.SO_SNDBUF, SND_BUF_LEN);
+            c.bind(new InetSocketAddress(port));
+            c.configureBlocking(false);
+            s = Selector.open();
+            c.register(s, SelectionKey.OP_READ, dispatcher);
+        } catch (IOException e) {
+            if (s != null) {
+                s.close();
+            }
+            c.close();
+            throw e;
+        }
+        this.uc = c;
+        this.selector = s;
+    }
+
+    /**
+     * Return the local port of the unicast socket
+     * @return port number
+     */
+    public int local_port() {
+        return uc.socket().getLocalPort();
+    }
+
+    /**
+     * Return the interface used for multicast: the first one up that is not
+     * the loopback, or the loopback if there is no other
+     * @return network interface, or null if none supports multicast
+     * @throws SocketException if the interfaces cannot be listed
+     */
+    private static NetworkInterface multicast_interface() throws SocketException {
+        NetworkInterface loopback = null;
+        Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces();
+        while ((en != null) && en.hasMoreElements()) {
+            NetworkInterface ni = en.nextElement();
+            if (!ni.isUp() || !ni.supportsMulticast()) {
+                continue;
+            }
+            if (!ni.isLoopback()) {
+                return ni;
+            }
+            if (loopback == null) {
+                loopback = ni;
+            }
+        }
+        return loopback;
+    }
+
+    /**
+     * Join the multicast group, creating the multicast socket
+     * @param multicast_addr  IP multicast address
+     * @param mport           multicast port number
+     * @param dispatcher      handlers of the packets received from the group
+     * @return true if joined, false otherwise
+     */
+    public synchronized boolean join_group(String multicast_addr, int mport,
+            PacketDispatcher dispatcher) {
+        DatagramChannel c = null;
+        try {
+            InetAddress g = InetAddress.getByName(multicast_addr);
+            NetworkInterface ni = multicast_interface();
+            if (ni == null) {
+                throw new SocketException("no interface supports multicast");
+            }
+            c = DatagramChannel.open((g instanceof Inet6Address)
+                    ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+            c.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            c.setOption(StandardSocketOptions.SO_RCVBUF, RCV_BUF_LEN);
+            c.bind(new InetSocketAddress(mport));
+            membership = c.join(g, ni);
+            c.configureBlocking(false);
+            c.register(selector, SelectionKey.OP_READ, dispatcher);
+            try {
+                // Send to the group through the same interface
+                uc.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+            } catch (IOException e) {
+                // The default interface is used
+            }
+            mc = c;
+            group = new InetSocketAddress(g, mport);
+            return true;
+        } catch (IOException e) {
+            win.Log("Multicast daemon failure: " + e + "\n");
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (IOException e2) {
+                    // Ignored
+                }
+            }
+            membership = null;
+            return false;
+        }
+    }
+
+    /**
+     * Leave the multicast group, closing the multicast socket
+     */
+    public synchronized void leave_group() {
+        if (mc == null) {
+            return;
+        }
+        try {
+            membership.drop();
+            mc.close();
+        } catch (IOException e) {
+            win.Log("Failed leave group: " + e + "\n");
+        }
+        mc = null;
+        membership = null;
+        group = null;
+    }
+
+    /**
+     * Send a packet through the unicast socket
+     * @param dp  packet to send, with the destination address and port
+     * @throws IOException if the packet was not sent
+     */
+    public void send(DatagramPacket dp) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(dp.getData(), dp.getOffset(), dp.getLength());
+        if (uc.send(b, dp.getSocketAddress()) == 0) {
+            throw new IOException("Socket send buffer full");
+        }
+    }
+
+    /**
+     * Send a packet to the multicast group
+     * @param dp  packet to send
+     * @throws IOException if the packet was not sent
+     */
+    public void send_group(DatagramPacket dp) throws IOException {
+        InetSocketAddress g;
+        synchronized (this) {
+            g = group;
+        }
+        if (g == null) {
+            win.Log("Invalid call to send_packet multicast\n");
+            return;
+        }
+        dp.setSocketAddress(g);
+        send(dp);
+    }
+
+    /**
+     * Start running a timer
+     * @param t  timer
+     */
+    void schedule(LoopTimer t) {
+        synchronized (timers) {
+            if (!timers.contains(t)) {
+                timers.add(t);
+            }
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Stop running a timer, if it is not running
+     * @param t  timer
+     */
+    void cancel(LoopTimer t) {
+        synchronized (timers) {
+            if (t.due() == Long.MAX_VALUE) {
+                timers.remove(t);
+            }
+        }
+    }
+
+    /**
+     * Return the time to wait for the next timer
+     * @return time (ms), or 0 if there are no timers running
+     */
+    private long next_timeout() {
+        long next = Long.MAX_VALUE;
+        synchronized (timers) {
+            for (LoopTimer t : timers) {
+                next = Math.min(next, t.due());
+            }
+        }
+        if (next == Long.MAX_VALUE) {
+            return 0;
+        }
+        return Math.max(1, next - Router.now_ms());
+    }
+
+    /**
+     * Run the timers that are due
+     */
+    private void run_timers() {
+        long now = Router.now_ms();
+        ArrayList<LoopTimer> due = null;
+        synchronized (timers) {
+            for (LoopTimer t : timers) {
+                if (t.due() <= now) {
+                    if (due == null) {
+                        due = new ArrayList<>();
+                    }
+                    due.add(t);
+                }
+            }
+        }
+        if (due == null) {
+            return;
+        }
+        synchronized (win.main_lock) {
+            for (LoopTimer t : due) {
+                t.fire(now);
+            }
+        }
+    }
+
+    /**
+     * Read and handle the datagrams waiting in a channel, up to MAX_DRAIN
+     * @param ch          channel
+     * @param dispatcher  handlers of the packets
+     * @throws IOException if the reception fails
+     */
+    private void drain(DatagramChannel ch, PacketDispatcher dispatcher) throws IOException {
+        synchronized (win.main_lock) {
+            for (int i = 0; i < MAX_DRAIN; i++) {
+                DatagramPacket dp = pc.receive(ch, rbuf);
+                if (dp == null) {
+                    return;     // No more datagrams
+                }
+                try {
+                    dispatcher.dispatch(dp, pc);
+                } catch (IOException e) {
+                    win.Log("Packet too short\n");
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread main function
+     */
+    @Override
+    public void run() {
+        try {
+            while (keepRunning) {
+                selector.select(next_timeout());
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey k = it.next();
+                    it.remove();
+                    if (!k.isValid() || !k.isReadable()) {
+                        continue;
+                    }
+                    try {
+                        drain((DatagramChannel) k.channel(), (PacketDispatcher) k.attachment());
+                    } catch (IOException e) {
+                        if (keepRunning) {
+                            win.Log("recv UDP exception : " + e + "\n");
+                        }
+                    }
+                }
+                run_timers();
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed while stopping
+        } catch (IOException e) {
+            if (keepRunning) {
+                win.Log("IO exception in the event loop : " + e + "\n");
+            }
+        }
+    }
+
+    /**
+     * Stop the thread, waiting until it exits, so that no packet or timer is
+     *  handled after it returns; the unicast socket remains open, to send the
+     *  last packets, until close is called
+     */
+    public void stopRunning() {
+        keepRunning = false;
+        selector.wakeup();
+        if (Thread.currentThread() == this) {
+            return;
+        }
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                this.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Close the sockets; must be called after stopRunning
+     */
+    public void close() {
+        leave_group();
+        try {
+            selector.close();
+            uc.close();
+        } catch (IOException e) {
+            win.Log("Failed closing the sockets: " + e + "\n");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * ForwardingTable.java
+ *
+ * Forwarding information base used by the DATA forwarding path
+ *
+ * Created on 17 de Outubro de 2026, 06:08
+ */
+
+package router;
+
+/**
+ * Read-only forwarding table built from a routing table snapshot and the
+ * neighbour list. The next hops are kept in dense arrays indexed by the
+ * destination address index (Router.addr_index), with up to Router.MAX_ECMP
+ * slots per destination, together with the Neighbour object of each next
+ * hop. A lookup does not hash, box or allocate. The table must be rebuilt
+ * when the routing table or the neighbour list (version()) change.
+ */
+public class ForwardingTable {
+    /** Next hop addresses; slot i of destination d is d*MAX_ECMP+i */
+    private final char[] hop = new char[Router.N_ADDR * Router.MAX_ECMP];
+    /** Neighbour object of each next hop, or null if it is not a neighbour */
+    private final Neighbour[] hop_neig = new Neighbour[Router.N_ADDR * Router.MAX_ECMP];
+    /** Number of equal cost next hops of each destination (0 = no route) */
+    private final int[] n_hops = new int[Router.N_ADDR];
+    /** Neighbour object of the loop-free alternate of each destination */
+    private final Neighbour[] alt_neig = new Neighbour[Router.N_ADDR];
+    /** Version of the neighbour list used to build the table */
+    private final int neig_version;
+
+    /**
+     * Constructor - build the forwarding table
+     * @param rt    routing table snapshot, or null for an empty table
+     * @param neig  neighbour list
+     */
+    public ForwardingTable(RoutingTable rt, NeighbourList neig) {
+        this.neig_version = neig.version();
+        if ((rt == null) || !rt.is_valid()) {
+            return;
+        }
+        for (RouteEntry re : rt.get_routeset()) {
+            int d = Router.addr_index(re.dest);
+            if ((d < 0) || (re.next_hop == ' ')) {
+                continue;
+            }
+            int n = Math.min(re.n_hops(), Router.MAX_ECMP);
+            for (int i = 0; i < n; i++) {
+                char h = re.next_hop(i);
+                hop[d * Router.MAX_ECMP + i] = h;
+                hop_neig[d * Router.MAX_ECMP + i] = neig.locate_neig(h);
+            }
+            n_hops[d] = n;
+            if (re.alt_hop != ' ') {
+                alt_neig[d] = neig.locate_neig(re.alt_hop);
+            }
+        }
+    }
+
+    /**
+     * Return the next hop selected for a flow
+     * @param d     destination address index
+     * @param hash  flow hash value
+     * @return next hop address, or ' ' if there is no route
+     */
+    public char next_hop(int d, int hash) {
+        if ((d < 0) || (n_hops[d] == 0)) {
+            return ' ';
+        }
+        return hop[d * Router.MAX_ECMP + (hash & 0x7fffffff) % n_hops[d]];
+    }
+
+    /**
+     * Return the neighbour used to forward a flow: the next hop selected by
+     * the hash; if it is not in the neighbour list, another equal cost next
+     * hop, then the loop-free alternate
+     * @param d     destination address index
+     * @param hash  flow hash value
+     * @return the Neighbour object, or null if there is none
+     */
+    public Neighbour neighbour(int d, int hash) {
+        if ((d < 0) || (n_hops[d] == 0)) {
+            return null;
+        }
+        int n = n_hops[d];
+        int first = (hash & 0x7fffffff) % n;
+        for (int i = 0; i < n; i++) {
+            Neighbour pt = hop_neig[d * Router.MAX_ECMP + (first + i) % n];
+            if (pt != null) {
+                return pt;
+            }
+        }
+        return alt_neig[d];
+    }
+
+    /**
+     * Return the version of the neighbour list used to build the table
+     * @return neighbour list version
+     */
+    public int neig_version() {
+        return neig_version;
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * LinkStateGraph.java
+ *
+ * Compact topology graph of an area, kept alongside the RouterInfo list
+ *
+ * Created on 17 de Outubro de 2026, 06:05
+ */
+
+package router;
+
+import java.util.Arrays;
+
+/**
+ * Adjacency of the routers of an area in compressed sparse row (CSR) form.
+ * Node ids are the router address indexes (Router.addr_index); the links of
+ * node u are stored in col[row_start[u] .. row_start[u+1][ (destination) and
+ * cost[] (distance). Rows are replaced in place when a ROUTE vector changes,
+ * shifting the following rows only when the number of links changes.
+ * Each row has a version number, incremented every time its contents change.
+ */
+public class LinkStateGraph {
+    /** Initial capacity of the link arrays */
+    private final static int INITIAL_CAPACITY = 64;
+
+    /** First link of each row; row u ends at row_start[u+1] */
+    final int[] row_start = new int[Router.N_ADDR + 1];
+    /** Destination node of each link */
+    int[] col = new int[INITIAL_CAPACITY];
+    /** Cost of each link */
+    int[] cost = new int[INITIAL_CAPACITY];
+    /** Version of each row */
+    private final int[] version = new int[Router.N_ADDR];
+    /** true if the node has a vector (even without links) */
+    private final boolean[] present = new boolean[Router.N_ADDR];
+
+    /**
+     * Replace the links of node u with the contents of a ROUTE vector.
+     * Entries to u itself and to invalid addresses are ignored.
+     * @param u    node index
+     * @param vec  Entry vector, or null to remove the node
+     * @return true if the row changed, false otherwise
+     */
+    public boolean set_row(int u, Entry[] vec) {
+        if (vec == null) {
+            return clear_row(u);
+        }
+        int n = 0;
+        for (Entry e : vec) {
+            if (link_index(u, e) >= 0) {
+                n++;
+            }
+        }
+        if (present[u] && (n == degree(u)) && same_row(u, vec)) {
+            return false;
+        }
+        resize_row(u, n);
+        int k = row_start[u];
+        for (Entry e : vec) {
+            int v = link_index(u, e);
+            if (v >= 0) {
+                col[k] = v;
+                cost[k] = e.dist;
+                k++;
+            }
+        }
+        present[u] = true;
+        version[u]++;
+        return true;
+    }
+
+    /**
+     * Remove all the links of node u (e.g. when its vector expires)
+     * @param u  node index
+     * @return true if the row changed, false otherwise
+     */
+    public boolean clear_row(int u) {
+        if (!present[u]) {
+            return false;
+        }
+        resize_row(u, 0);
+        present[u] = false;
+        version[u]++;
+        return true;
+    }
+
+    /**
+     * Remove all nodes and links
+     */
+    public void clear() {
+        for (int u = 0; u < Router.N_ADDR; u++) {
+            clear_row(u);
+        }
+    }
+
+    /**
+     * Test if a node has a vector
+     * @param u  node index
+     * @return true if the node has a vector
+     */
+    public boolean has_row(int u) {
+        return present[u];
+    }
+
+    /**
+     * Return the number of links of a node
+     * @param u  node index
+     * @return number of links
+     */
+    public int degree(int u) {
+        return row_start[u + 1] - row_start[u];
+    }
+
+    /**
+     * Return the version of the row of a node
+     * @param u  node index
+     * @return version number
+     */
+    public int version(int u) {
+        return version[u];
+    }
+
+    /**
+     * Return the cost of the link from u to v
+     * @param u  source node index
+     * @param v  destination node index
+     * @return link cost, or -1 if there is no link
+     */
+    public int link_cost(int u, int v) {
+        for (int k = row_start[u]; k < row_start[u + 1]; k++) {
+            if (col[k] == v) {
+                return cost[k];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the node index of the destination of a ROUTE vector element
+     * @param u  node index of the vector owner
+     * @param e  vector element
+     * @return node index, or -1 if it is not a link to another node
+     */
+    private static int link_index(int u, Entry e) {
+        int v = Router.addr_index(e.dest);
+        return (v == u) ? -1 : v;
+    }
+
+    /**
+     * Compare the row of a node with a vector with the same number of links
+     * @param u    node index
+     * @param vec  Entry vector
+     * @return true if the links are equal and in the same order
+     */
+    private boolean same_row(int u, Entry[] vec) {
+        int k = row_start[u];
+        for (Entry e : vec) {
+            int v = link_index(u, e);
+            if (v < 0) {
+                continue;
+            }
+            if ((col[k] != v) || (cost[k] != e.dist)) {
+                return false;
+            }
+            k++;
+        }
+        return true;
+    }
+
+    /**
+     * Change the number of links of a row, shifting the following rows
+     * @param u  node index
+     * @param n  new number of links
+     */
+    private void resize_row(int u, int n) {
+        int delta = n - degree(u);
+        if (delta == 0) {
+            return;
+        }
+        int total = row_start[Router.N_ADDR];
+        if (total + delta > col.length) {
+            int cap = Math.max(2 * col.length, total + delta);
+            col = Arrays.copyOf(col, cap);
+            cost = Arrays.copyOf(cost, cap);
+        }
+        int tail = row_start[u + 1];
+        System.arraycopy(col, tail, col, tail + delta, total - tail);
+        System.arraycopy(cost, tail, cost, tail + delta, total - tail);
+        for (int i = u + 1; i <= Router.N_ADDR; i++) {
+            row_start[i] += delta;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * LoopTimer.java
+ *
+ * Timer run by the event loop thread
+ *
+ * Created on 17 de Outubro de 2026, 06:33
+ */
+
+package router;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Timer with the same interface as javax.swing.Timer, whose listener is
+ * called by the EventLoop thread, holding the main lock, instead of the
+ * Swing event thread. The timers are therefore serialized with the packets
+ * received, and the protocol does not compete with the GUI for the event
+ * thread. It may be started and stopped from any thread.
+ */
+public class LoopTimer {
+    /** Event loop that runs the timer */
+    private final EventLoop loop;
+    /** Listener called when the timer fires */
+    private final ActionListener listener;
+    /** Delay between events (ms) */
+    private int delay;
+    /** Delay until the first event (ms) */
+    private int initial_delay;
+    /** true if the timer fires more than once */
+    private boolean repeats;
+    /** Time of the next event (ms, Router.now_ms); valid while running */
+    private long due;
+    /** true if the timer is running */
+    private boolean running;
+
+    /**
+     * Constructor
+     * @param loop      event loop
+     * @param delay     delay between events and until the first event (ms)
+     * @param listener  listener called when the timer fires
+     */
+    public LoopTimer(EventLoop loop, int delay, ActionListener listener) {
+        this.loop = loop;
+        this.listener = listener;
+        this.delay = delay;
+        this.initial_delay = delay;
+        this.repeats = true;
+        this.running = false;
+    }
+
+    /**
+     * Set the delay between events
+     * @param delay  delay (ms)
+     */
+    public synchronized void setDelay(int delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Set the delay until the first event
+     * @param delay  delay (ms)
+     */
+    public synchronized void setInitialDelay(int delay) {
+        this.initial_delay = delay;
+    }
+
+    /**
+     * Define if the timer fires more than once
+     * @param repeats  false to fire only once
+     */
+    public synchronized void setRepeats(boolean repeats) {
+        this.repeats = repeats;
+    }
+
+    /**
+     * Test if the timer is running
+     * @return true if running
+     */
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Start the timer; nothing is done if it is already running
+     */
+    public void start() {
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+            due = Router.now_ms() + initial_delay;
+        }
+        loop.schedule(this);
+    }
+
+    /**
+     * Restart the timer, cancelling the pending event
+     */
+    public void restart() {
+        synchronized (this) {
+            running = true;
+            due = Router.now_ms() + initial_delay;
+        }
+        loop.schedule(this);
+    }
+
+    /**
+     * Stop the timer
+     */
+    public void stop() {
+        synchronized (this) {
+            running = false;
+        }
+        loop.cancel(this);
+    }
+
+    /**
+     * Return the time of the next event
+     * @return time (ms, Router.now_ms), or Long.MAX_VALUE if stopped
+     */
+    synchronized long due() {
+        return running ? due : Long.MAX_VALUE;
+    }
+
+    /**
+     * Called by the event loop - fire the timer if its time elapsed
+     * @param now  current time (ms, Router.now_ms)
+     */
+    void fire(long now) {
+        synchronized (this) {
+            if (!running || (due > now)) {
+                return;
+            }
+            if (repeats) {
+                due = now + delay;
+            } else {
+                running = false;
+            }
+        }
+        loop.cancel(this);
+        listener.actionPerformed(new ActionEvent(this, ActionEvent.ACTION_PERFORMED, null));
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * LsdbAging.java
+ *
+ * Removes the routers whose ROUTE information expired
+ *
+ * Created on 17 de Outubro de 2026, 06:10
+ */
+
+package router;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Aging of the link state database of one area. The RouterInfo objects are
+ * kept in a priority queue ordered by expiration time (monotonic clock),
+ * and a single shot timer is armed for the first expiration. When it fires,
+ * all the routers already expired are removed in one batch and handed to
+ * the routing process, which triggers a single recalculation.
+ */
+public class LsdbAging {
+    /** Routing process that owns the database */
+    private final RoutingProcess rp;
+    /** Single shot timer armed for the first expiration */
+    private final LoopTimer timer;
+    /** Routers ordered by expiration time */
+    private final PriorityQueue<RouterInfo> queue;
+
+    /**
+     * Constructor
+     * @param rp  routing process of the area
+     */
+    public LsdbAging(RoutingProcess rp) {
+        this.rp = rp;
+        this.queue = new PriorityQueue<>(Router.N_ADDR, new Comparator<RouterInfo>() {
+            @Override
+            public int compare(RouterInfo a, RouterInfo b) {
+                return Long.compare(a.expires, b.expires);
+            }
+        });
+        this.timer = new LoopTimer(rp.loop(), 0, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent evt) {
+                expire();
+            }
+        });
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Insert a router, or reposition it after its expiration time changed.
+     * Must be called after RouterInfo.update_vec.
+     * @param ri  router information
+     */
+    public synchronized void schedule(RouterInfo ri) {
+        queue.remove(ri);
+        queue.add(ri);
+        arm();
+    }
+
+    /**
+     * Remove a router from the queue
+     * @param ri  router information
+     */
+    public synchronized void remove(RouterInfo ri) {
+        if (queue.remove(ri)) {
+            arm();
+        }
+    }
+
+    /**
+     * Stop the aging, emptying the queue
+     */
+    public synchronized void stop() {
+        timer.stop();
+        queue.clear();
+    }
+
+    /**
+     * Arm the timer for the first expiration
+     */
+    private void arm() {
+        RouterInfo head = queue.peek();
+        if (head == null) {
+            timer.stop();
+            return;
+        }
+        long delay = head.expires - Router.now_ms() + 1;
+        timer.setInitialDelay((int) Math.max(0, Math.min(delay, Integer.MAX_VALUE)));
+        timer.restart();
+    }
+
+    /**
+     * Handle the timer - remove all the expired routers in one batch
+     */
+    private void expire() {
+        ArrayList<RouterInfo> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = Router.now_ms();
+            while (!queue.isEmpty() && (queue.peek().expires < now)) {
+                expired.add(queue.poll());
+            }
+            arm();
+        }
+        if (!expired.isEmpty()) {
+            rp.routers_expired(expired);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * LsdbSnapshot.java
+ *
+ * Memory-mapped copy of the link state database, used for warm restart
+ *
+ * Created on 17 de Outubro de 2026, 06:13
+ */
+
+package router;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Memory-mapped file with the RouterInfo objects of every area, the last
+ * global routing table and the last ROUTE sequence number sent in each area.
+ * The file has fixed size slots, so each modification writes a single slot:
+ * <pre>
+ *  header:  magic(int) format(int) local_name(char) route_seq[10](int)
+ *  routers: 10 areas x N_ADDR slots: state(byte) seq(int) TTL(int)
+ *           expires(long, wall clock) n(short) n x (dest(char) dist(int))
+ *  table:   N_ADDR slots: state(byte) dist(int) area(char) alt(char)
+ *           n(byte) MAX_ECMP x next_hop(char)
+ * </pre>
+ * The expiration time is stored in wall clock time, so the vectors that
+ * expired while the router was stopped are not loaded.
+ */
+public class LsdbSnapshot {
+    /** File identification */
+    private final static int MAGIC = 0x5249544c;   // "RITL"
+    /** Version of the file format */
+    private final static int FORMAT = 1;
+    /** Number of areas ('0'-'9') */
+    private final static int N_AREAS = 10;
+    /** Maximum number of Entry elements stored per router */
+    private final static int MAX_VEC = 30;
+
+    /** Size of the header */
+    private final static int HEADER_SIZE = 4 + 4 + 2 + 4 * N_AREAS;
+    /** Size of a router slot */
+    private final static int ROUTER_SLOT = 1 + 4 + 4 + 8 + 2 + MAX_VEC * 6;
+    /** Size of a routing table slot */
+    private final static int ROUTE_SLOT = 1 + 4 + 2 + 2 + 1 + 2 * Router.MAX_ECMP;
+    /** Offset of the routing table section */
+    private final static int TABLE_OFFSET = HEADER_SIZE + N_AREAS * Router.N_ADDR * ROUTER_SLOT;
+    /** Total file size */
+    private final static int FILE_SIZE = TABLE_OFFSET + Router.N_ADDR * ROUTE_SLOT;
+
+    /** Slot states */
+    private final static byte EMPTY = 0;
+    private final static byte VALID = 1;
+
+    /** File with the snapshot */
+    private final RandomAccessFile file;
+    /** Mapped contents of the file */
+    private final MappedByteBuffer buf;
+    /** Reference to the main window of the GUI */
+    private final Router win;
+
+    /**
+     * Constructor - map the file, clearing it if it does not have a valid
+     * snapshot of this router
+     * @param f           snapshot file
+     * @param local_name  local address
+     * @param win         main window
+     * @throws IOException if the file cannot be mapped
+     */
+    public LsdbSnapshot(File f, char local_name, Router win) throws IOException {
+        this.win = win;
+        this.file = new RandomAccessFile(f, "rw");
+        boolean valid = (file.length() == FILE_SIZE);
+        file.setLength(FILE_SIZE);
+        this.buf = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        if (!valid || (buf.getInt(0) != MAGIC) || (buf.getInt(4) != FORMAT)
+                || (buf.getChar(8) != local_name)) {
+            for (int i = 0; i < FILE_SIZE; i++) {
+                buf.put(i, (byte) 0);
+            }
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, FORMAT);
+            buf.putChar(8, local_name);
+        }
+    }
+
+    /**
+     * Return the index of an area
+     * @param area  area number
+     * @return index, or -1 if invalid
+     */
+    private static int area_index(char area) {
+        return ((area >= '0') && (area <= '9')) ? (area - '0') : -1;
+    }
+
+    /**
+     * Return the offset of a router slot
+     * @param area  area number
+     * @param name  router address
+     * @return offset, or -1 if the area or address are invalid
+     */
+    private static int router_offset(char area, char name) {
+        int a = area_index(area);
+        int r = Router.addr_index(name);
+        if ((a < 0) || (r < 0)) {
+            return -1;
+        }
+        return HEADER_SIZE + (a * Router.N_ADDR + r) * ROUTER_SLOT;
+    }
+
+    /**
+     * Store the ROUTE information of a router
+     * @param ri  router information
+     */
+    public synchronized void store_router(RouterInfo ri) {
+        int off = router_offset(ri.area, ri.name);
+        if ((off < 0) || (ri.vec == null) || (ri.vec.length > MAX_VEC)) {
+            return;
+        }
+        buf.put(off, EMPTY);    // Invalid while being written
+        buf.putInt(off + 1, ri.seq);
+        buf.putInt(off + 5, ri.TTL);
+        buf.putLong(off + 9, System.currentTimeMillis()
+                + (ri.expires - Router.now_ms()));
+        buf.putShort(off + 17, (short) ri.vec.length);
+        int p = off + 19;
+        for (Entry e : ri.vec) {
+            buf.putChar(p, e.dest);
+            buf.putInt(p + 2, e.dist);
+            p += 6;
+        }
+        buf.put(off, VALID);
+    }
+
+    /**
+     * Remove the ROUTE information of a router
+     * @param area  area number
+     * @param name  router address
+     */
+    public synchronized void clear_router(char area, char name) {
+        int off = router_offset(area, name);
+        if (off >= 0) {
+            buf.put(off, EMPTY);
+        }
+    }
+
+    /**
+     * Load the ROUTE information of an area that has not expired
+     * @param area  area number
+     * @return list of RouterInfo, with the remaining TTL
+     */
+    public synchronized ArrayList<RouterInfo> load_routers(char area) {
+        ArrayList<RouterInfo> list = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int r = 0; r < Router.N_ADDR; r++) {
+            int off = router_offset(area, Router.index_addr(r));
+            if ((off < 0) || (buf.get(off) != VALID)) {
+                continue;
+            }
+            long remaining = buf.getLong(off + 9) - now;
+            int n = buf.getShort(off + 17);
+            if ((remaining <= 0) || (n <= 0) || (n > MAX_VEC)) {
+                continue;
+            }
+            Entry[] vec = new Entry[n];
+            int p = off + 19;
+            for (int i = 0; i < n; i++) {
+                vec[i] = new Entry(buf.getChar(p), buf.getInt(p + 2));
+                p += 6;
+            }
+            list.add(new RouterInfo(win, Router.index_addr(r), area,
+                    buf.getInt(off + 1), (int) ((remaining + 999) / 1000), vec));
+        }
+        return list;
+    }
+
+    /**
+     * Store the last ROUTE sequence number sent in an area
+     * @param area  area number
+     * @param seq   sequence number
+     */
+    public synchronized void store_route_seq(char area, int seq) {
+        int a = area_index(area);
+        if (a >= 0) {
+            buf.putInt(10 + 4 * a, seq);
+        }
+    }
+
+    /**
+     * Return the last ROUTE sequence number sent in an area
+     * @param area  area number
+     * @return sequence number, or 0 if unknown
+     */
+    public synchronized int load_route_seq(char area) {
+        int a = area_index(area);
+        return (a >= 0) ? buf.getInt(10 + 4 * a) : 0;
+    }
+
+    /**
+     * Store the routes modified in the routing table
+     * @param rt    new routing table
+     * @param diff  differences from the table previously stored, or null to
+     *              store the complete table
+     */
+    public synchronized void store_table(RoutingTable rt, RoutingTableDiff diff) {
+        if (diff == null) {
+            for (int d = 0; d < Router.N_ADDR; d++) {
+                buf.put(TABLE_OFFSET + d * ROUTE_SLOT, EMPTY);
+            }
+            for (RouteEntry re : rt.get_routeset()) {
+                store_route(re);
+            }
+            return;
+        }
+        for (RouteEntry re : diff.removed) {
+            int d = Router.addr_index(re.dest);
+            if (d >= 0) {
+                buf.put(TABLE_OFFSET + d * ROUTE_SLOT, EMPTY);
+            }
+        }
+        for (RouteEntry re : diff.added) {
+            store_route(re);
+        }
+        for (RouteEntry re : diff.modified) {
+            store_route(re);
+        }
+    }
+
+    /**
+     * Store a route in its slot
+     * @param re  route
+     */
+    private void store_route(RouteEntry re) {
+        int d = Router.addr_index(re.dest);
+        if (d < 0) {
+            return;
+        }
+        int off = TABLE_OFFSET + d * ROUTE_SLOT;
+        int n = Math.min(re.n_hops(), Router.MAX_ECMP);
+        buf.put(off, EMPTY);
+        buf.putInt(off + 1, re.dist);
+        buf.putChar(off + 5, re.next_hop_area);
+        buf.putChar(off + 7, re.alt_hop);
+        buf.put(off + 9, (byte) n);
+        for (int i = 0; i < n; i++) {
+            buf.putChar(off + 10 + 2 * i, re.next_hop(i));
+        }
+        buf.put(off, VALID);
+    }
+
+    /**
+     * Load the routing table stored
+     * @return the routing table, empty if none was stored
+     */
+    public synchronized RoutingTable load_table() {
+        RoutingTable rt = new RoutingTable();
+        for (int d = 0; d < Router.N_ADDR; d++) {
+            int off = TABLE_OFFSET + d * ROUTE_SLOT;
+            int n = buf.get(off + 9);
+            if ((buf.get(off) != VALID) || (n <= 0) || (n > Router.MAX_ECMP)) {
+                continue;
+            }
+            char[] hops = new char[n];
+            for (int i = 0; i < n; i++) {
+                hops[i] = buf.getChar(off + 10 + 2 * i);
+            }
+            RouteEntry re = new RouteEntry(Router.index_addr(d), hops,
+                    buf.getChar(off + 5), buf.getInt(off + 1));
+            re.alt_hop = buf.getChar(off + 7);
+            re.set_final();
+            rt.add_route(re);
+        }
+        return rt;
+    }
+
+    /**
+     * Close the file; the contents are kept for the next start
+     */
+    public synchronized void close() {
+        buf.force();
+        try {
+            file.close();
+        } catch (IOException e) {
+            win.Log("Error closing LSDB snapshot: " + e + "\n");
+        }
+    }
+}
@@ -39,6 +39,7 @@ public class Neighbour {
     public Entry[] vec;     // Neighbor vector
     public Date vec_date;   // Neighbor vector reception date
     public long vec_TTL;    // TTL in miliseconds
+    public long vec_expires; // Vector expiration time (ms, Router.now_ms)
     
     /**
      * Return the name of the Neighbour
@@ -171,6 +172,7 @@ public class Neighbour {
         this.vec= vec;
         this.vec_date= new Date();  // Now
         this.vec_TTL= TTL;
+        this.vec_expires= Router.now_ms() + TTL;
     }
     
     /**
@@ -185,6 +187,7 @@ public class Neighbour {
         this.vec= null;
         this.vec_date= null;
         this.vec_TTL= 0;
+        this.vec_expires= 0;
         this.area= null;
     }
 
@@ -214,7 +217,7 @@ public class Neighbour {
      * Vector-distance protocol specific: test if the vector is valid
      * @return true if is valid, false otherwise
      */
-    public boolean vec_valid() { return (vec!=null) && ((new Date().getTime() - vec_date.getTime())<=vec_TTL); }
+    public boolean vec_valid() { return (vec!=null) && (Router.now_ms() <= vec_expires); }
 
     
     /**
@@ -234,35 +237,16 @@ public class Neighbour {
 
     /**
      * Send a packet to the Neighbour
-     * @param ds  datagram socket
+     * @param loop event loop with the unicast socket
      * @param dp  datagram packet with the packet contents
      * @throws IOException 
      */
-    public void send_packet(DatagramSocket ds, 
+    public void send_packet(EventLoop loop, 
                                 DatagramPacket dp) throws IOException {
         try {
             dp.setAddress(this.netip);
             dp.setPort(this.port);
-            ds.send(dp);
-        }
-        catch (IOException e) {
-            throw e;
-        }        
-    }
-    
-    /**
-     * Send a packet to the Neighbour
-     * @param ds  datagram socket
-     * @param os  output stream with the packet contents
-     * @throws IOException 
-     */
-    public void send_packet(DatagramSocket ds, 
-                                ByteArrayOutputStream os) throws IOException {
-        try {
-            byte [] buffer = os.toByteArray();
-            DatagramPacket dp= new DatagramPacket(buffer, buffer.length, 
-                this.netip, this.port);
-            ds.send(dp);
+            loop.send(dp);
         }
         catch (IOException e) {
             throw e;
@@ -271,31 +255,28 @@ public class Neighbour {
     
     /**
      * Create a send a HELLO packet to the Neighbour
-     * @param ds    datagram socket
+     * @param loop  event loop with the unicast socket
      * @param win   main window object 
      * @return true if sent successfully, false otherwise
      */
-    public boolean send_Hello(DatagramSocket ds, Router win) {
-        ByteArrayOutputStream os= new ByteArrayOutputStream();
-        DataOutputStream dos= new DataOutputStream(os);
+    public boolean send_Hello(EventLoop loop, Router win) {
         String larea= win.local_areas();
         if (larea == null) {
             System.out.println("Area not defined - Hello not sent");
             return false;
         }
         try {
-            dos.writeByte(Router.PKT_HELLO);
             // name ('letter')
-            dos.writeChar(win.local_name());
+            PacketCodec pc= PacketCodec.encoder().begin(Router.PKT_HELLO, win.local_name());
             // Distance
-            dos.writeInt(dist);
+            pc.put_int(dist);
             // Areas
-            dos.writeInt(larea.length());
+            pc.put_int(larea.length());
             for (int i=0; i<larea.length(); i++) {
-                dos.writeChar(larea.charAt(i));
+                pc.put_char(larea.charAt(i));
             }
             //
-            send_packet(ds, os);
+            send_packet(loop, pc.packet());
             win.HELLO_snt++;
             return true;
         }
@@ -307,18 +288,15 @@ public class Neighbour {
     
     /**
      * Create a send a BYE packet to the Neighbour
-     * @param ds    datagram socket
+     * @param loop  event loop with the unicast socket
      * @param win   main window object 
      * @return true if sent successfully, false otherwise
      */
-    public boolean send_Bye(DatagramSocket ds, Router win) {
-        ByteArrayOutputStream os= new ByteArrayOutputStream();
-        DataOutputStream dos= new DataOutputStream(os);
+    public boolean send_Bye(EventLoop loop, Router win) {
         try {
-            dos.writeByte(Router.PKT_BYE);
             // name ('letter')
-            dos.writeChar(win.local_name());
-            send_packet(ds, os);
+            PacketCodec pc= PacketCodec.encoder().begin(Router.PKT_BYE, win.local_name());
+            send_packet(loop, pc.packet());
             win.BYE_snt++;
             return true;
         }
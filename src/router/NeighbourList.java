@@ -31,6 +31,9 @@ public class NeighbourList {
     public HashMap<String,Neighbour> list;
     /** Lock to synchronize the access to the list */
     final private Integer list_lock= new Integer(0);
+    /** Version of the list, incremented every time a Neighbour is added, 
+     *  modified or removed */
+    private volatile int version= 0;
 
     /**
      * Constractor - create a new instance of neighbourList
@@ -43,6 +46,14 @@ public class NeighbourList {
         list= new HashMap<String,Neighbour>();
     }
 
+    /**
+     * Return the version of the list, used to detect changes
+     * @return version number
+     */
+    public int version() {
+        return version;
+    }
+
     /**
      * Creates an Iterator for all neigbour objects in the list
      * @return iterator for all neigbours in the list
@@ -57,11 +68,11 @@ public class NeighbourList {
      * @param ip        ip address
      * @param port      port number
      * @param distance  distance
-     * @param ds        datagram socket
+     * @param loop      event loop with the unicast socket
      * @param area      area
      * @return true if new Neighbour was created and added, false otherwise
      */
-    public boolean add_neig(char name, String ip, int port, int distance, DatagramSocket ds, String area) {
+    public boolean add_neig(char name, String ip, int port, int distance, EventLoop loop, String area) {
         char local_name= win.local_name();        
         boolean novo;
         System.out.println("add_neig("+name+")");
@@ -93,9 +104,10 @@ public class NeighbourList {
         synchronized (list_lock) {
             // Adds or replaces a member of the table
             list.put(""+name, pt);
+            version++;
         }
         if (novo) {
-            pt.send_Hello(ds, win);
+            pt.send_Hello(loop, win);
         }
         return true;
     }
@@ -129,7 +141,10 @@ public class NeighbourList {
             return false;
         }
         // Prepare Neighbour entry
-        pt.update_neigh(pt.Name(), ip, port, distance, area);
+        synchronized (list_lock) {
+            pt.update_neigh(pt.Name(), ip, port, distance, area);
+            version++;
+        }
         return true;
     }    
     
@@ -137,10 +152,10 @@ public class NeighbourList {
      * Delete a Neighbour from the list, selected by name
      * @param name        name of Neighbour
      * @param send_msg    if true, sends a BYE message
-     * @param ds          datagram socket
+     * @param loop        event loop with the unicast socket
      * @return true if deleted successfully, false otherwise
      */
-    public boolean del_neig(char name, boolean send_msg, DatagramSocket ds) {
+    public boolean del_neig(char name, boolean send_msg, EventLoop loop) {
         Neighbour neig;
         synchronized (list_lock) {
             try {
@@ -155,11 +170,12 @@ public class NeighbourList {
             return false;
         }
         if (send_msg) {
-            neig.send_Bye(ds, win);
+            neig.send_Bye(loop, win);
         }
         synchronized (list_lock) {
             // Adds or replaces a member of the table
             list.remove(""+name);
+            version++;
         }
         return true;
     }    
@@ -168,35 +184,36 @@ public class NeighbourList {
      * Delete a Neighbour from the list, selected by object
      * @param neig      Neighbour to be deleted
      * @param send_msg    if true, sends a BYE message
-     * @param ds          datagram socket
+     * @param loop        event loop with the unicast socket
      * @return true if deleted successfully, false otherwise
      */
-    public boolean del_neig(Neighbour neig, boolean send_msg, DatagramSocket ds) {
+    public boolean del_neig(Neighbour neig, boolean send_msg, EventLoop loop) {
         synchronized (list_lock) {
             if (!list.containsValue(neig)) {
                 return false;
             }
         }
         if (send_msg) {
-            neig.send_Bye(ds, win);
+            neig.send_Bye(loop, win);
         }        
         synchronized (list_lock) {
             // Removes a member from the list
             list.remove(""+neig.Name());
+            version++;
         }
         return true;
     }
     
     /**
      * empty Neighbour list and send BYE to all members
-     * @param ds            datagram socket
+     * @param loop          event loop with the unicast socket
      */
-    public void clear_BYE(DatagramSocket ds) {
+    public void clear_BYE(EventLoop loop) {
         synchronized (list_lock) {
             Iterator<Neighbour> it= list.values().iterator();
             while (it.hasNext()) {
                 Neighbour pt= it.next();
-                pt.send_Bye(ds, win);
+                pt.send_Bye(loop, win);
             }
         }
         clear();
@@ -208,6 +225,7 @@ public class NeighbourList {
     public void clear() {
         synchronized (list_lock) {
             list.clear();
+            version++;
         }
     }
     
@@ -239,63 +257,84 @@ public class NeighbourList {
         return null;
     }
 
+    /**
+     * Return a copy of the list of valid neighbours that belong to an area
+     * @param area  the area selected
+     * @return list of Neighbour objects
+     */
+    public ArrayList<Neighbour> area_neighbours(char area) {
+        ArrayList<Neighbour> aux= new ArrayList<Neighbour>();
+        synchronized (list_lock) {
+            for (Neighbour pt : list.values()) {
+                if (pt.is_valid() && pt.in_area(area)) {
+                    aux.add(pt);
+                }
+            }
+        }
+        return aux;
+    }
+
     /**
      * Send a packet to all neighbours in the list except 'exc'
-     * @param ds    datagram socket
+     * @param loop  event loop with the unicast socket
      * @param dp    datagram packet to be sent
      * @param exc   Neighbour to exclude, or null
      * @throws IOException 
      */
-    public void send_packet(DatagramSocket ds, DatagramPacket dp, 
+    public void send_packet(EventLoop loop, DatagramPacket dp, 
                             Neighbour exc) throws IOException {
         synchronized (list_lock) {
             Iterator<Neighbour> it= list.values().iterator();
             while (it.hasNext()) {
                 Neighbour pt= it.next();
                 if (pt != exc) {
-                    pt.send_packet(ds, dp);
+                    pt.send_packet(loop, dp);
                 }
             }
         }        
     }
 
     /**
-     * Print the Neighbour list in the table at the GUI
+     * Print the Neighbour list in the table at the GUI; the rows are copied
+     *  here and written by the Swing event thread
      * @param table  reference to the graphical table
      * @return true if successful, false otherwise
      */
-    public boolean refresh_table(JTable table) {
+    public boolean refresh_table(final JTable table) {
+        if (table.getColumnCount() < 4) {
+            return false;
+        }
+        if (table.getRowCount() < max_range) {
+            return false;
+        }
+        final String[][] rows= new String[max_range][5];
         synchronized (list_lock) {
-            if (table.getColumnCount() < 4) {
-                return false;
-            }
-            if (table.getRowCount() < max_range) {
-                return false;
-            }
-            
-            // Update table
             Iterator<Neighbour> it= list.values().iterator();
             for (int i= 0; i<max_range; i++) { // For every row
-                Neighbour pt;
                 if (it.hasNext()) {
-                    pt= it.next();
-                }
-                else {
-                    pt= null;
+                    Neighbour pt= it.next();
+                    rows[i][0]= ""+pt.Name();
+                    rows[i][1]= pt.Ip();
+                    rows[i][2]= ""+pt.Port();
+                    rows[i][3]= ""+pt.Dist();
+                    rows[i][4]= (pt.area!=null)?pt.area:"";
+                } else {
+                    Arrays.fill(rows[i], "");
                 }
-                if (pt == null) {
+            }
+        }
+        
+        // Update table
+        Router.run_in_gui(new Runnable() {
+            @Override
+            public void run() {
+                for (int i= 0; i<rows.length; i++) {
                     for (int j= 0; j<5; j++) {
-                        table.setValueAt("", i,  j);
+                        table.setValueAt(rows[i][j], i,  j);
                     }
-                } else {
-                    table.setValueAt(""+pt.Name(), i,  0);
-                    table.setValueAt(pt.Ip(), i,  1);
-                    table.setValueAt(""+pt.Port(), i,  2);
-                    table.setValueAt(""+pt.Dist(), i,  3);
-                    table.setValueAt((pt.area!=null)?pt.area:"", i, 4);
                 }
             }
-        }
+        });
         return true;
     }   
     
@@ -0,0 +1,276 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * PacketCodec.java
+ *
+ * Reusable encoder/decoder of packets over a ByteBuffer
+ *
+ * Created on 17 de Outubro de 2026, 06:19
+ */
+
+package router;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Flyweight codec that writes and reads the packet fields directly on a
+ * ByteBuffer wrapping a fixed byte array, with a DatagramPacket bound to
+ * the same array. The fields use the same big-endian layout as the
+ * DataOutputStream/DataInputStream classes, so the packet format is not
+ * changed. The codec objects are reused: the event loop owns one, and
+ * the packets sent are encoded in the codec of the sending thread (see
+ * encoder()). The DatagramPacket returned by packet() is only valid until
+ * the next packet is encoded by the same thread.
+ */
+public class PacketCodec {
+    /** Maximum packet length */
+    public final static int MAX_PACKET_LEN = 8096;
+
+    /** Encoder of each thread */
+    private final static ThreadLocal<PacketCodec> ENCODERS = new ThreadLocal<PacketCodec>() {
+        @Override
+        protected PacketCodec initialValue() {
+            return new PacketCodec();
+        }
+    };
+
+    /** Packet contents */
+    private final byte[] data;
+    /** Buffer over data */
+    private final ByteBuffer bb;
+    /** Datagram packet over data */
+    private final DatagramPacket dp;
+
+    /**
+     * Constructor
+     */
+    public PacketCodec() {
+        this.data = new byte[MAX_PACKET_LEN];
+        this.bb = ByteBuffer.wrap(data);
+        this.dp = new DatagramPacket(data, data.length);
+    }
+
+    /**
+     * Return the encoder of the current thread
+     * @return codec
+     */
+    public static PacketCodec encoder() {
+        return ENCODERS.get();
+    }
+
+    /***************************************************************************
+     *              Encoding
+     */
+
+    /**
+     * Start encoding a new packet
+     * @param code    packet code
+     * @param sender  sender address
+     * @return this codec
+     * @throws IOException if the packet does not fit in the buffer
+     */
+    public PacketCodec begin(byte code, char sender) throws IOException {
+        bb.clear();
+        put_byte(code);
+        put_char(sender);
+        return this;
+    }
+
+    /**
+     * Check there is space for n more bytes
+     * @param n  number of bytes
+     * @throws IOException if the packet does not fit in the buffer
+     */
+    private void space(int n) throws IOException {
+        if (bb.remaining() < n) {
+            throw new IOException("Packet too long");
+        }
+    }
+
+    /**
+     * Write a byte
+     * @param v  value
+     * @throws IOException if the packet does not fit in the buffer
+     */
+    public void put_byte(int v) throws IOException {
+        space(1);
+        bb.put((byte) v);
+    }
+
+    /**
+     * Write a char
+     * @param v  value
+     * @throws IOException if the packet does not fit in the buffer
+     */
+    public void put_char(char v) throws IOException {
+        space(2);
+        bb.putChar(v);
+    }
+
+    /**
+     * Write a short
+     * @param v  value
+     * @throws IOException if the packet does not fit in the buffer
+     */
+    public void put_short(int v) throws IOException {
+        space(2);
+        bb.putShort((short) v);
+    }
+
+    /**
+     * Write an int
+     * @param v  value
+     * @throws IOException if the packet does not fit in the buffer
+     */
+    public void put_int(int v) throws IOException {
+        space(4);
+        bb.putInt(v);
+    }
+
+    /**
+     * Write a long
+     * @param v  value
+     * @throws IOException if the packet does not fit in the buffer
+     */
+    public void put_long(long v) throws IOException {
+        space(8);
+        bb.putLong(v);
+    }
+
+    /**
+     * Write the low byte of each character of a string, as
+     *  DataOutputStream.writeBytes
+     * @param s  string
+     * @throws IOException if the packet does not fit in the buffer
+     */
+    public void put_ascii(String s) throws IOException {
+        space(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            bb.put((byte) s.charAt(i));
+        }
+    }
+
+    /**
+     * Return the packet encoded since begin
+     * @return datagram packet, valid until the next begin
+     */
+    public DatagramPacket packet() {
+        dp.setData(data, 0, bb.position());
+        return dp;
+    }
+
+    /***************************************************************************
+     *              Decoding
+     */
+
+    /**
+     * Receive a packet from a non-blocking channel and prepare to decode it.
+     *  The packet is read into a direct buffer and copied once to the 
+     *  packet contents.
+     * @param ch    channel
+     * @param rbuf  direct buffer with at least MAX_PACKET_LEN bytes
+     * @return the datagram packet received, or null if there was none
+     * @throws IOException if the reception fails
+     */
+    public DatagramPacket receive(DatagramChannel ch, ByteBuffer rbuf) throws IOException {
+        rbuf.clear();
+        SocketAddress from = ch.receive(rbuf);
+        if (from == null) {
+            return null;
+        }
+        rbuf.flip();
+        int len = Math.min(rbuf.remaining(), data.length);
+        rbuf.get(data, 0, len);
+        dp.setData(data, 0, len);
+        dp.setSocketAddress(from);
+        bb.clear();
+        bb.limit(len);
+        return dp;
+    }
+
+    /**
+     * Check there are n more bytes to read
+     * @param n  number of bytes
+     * @throws IOException if the packet is too short
+     */
+    private void available(int n) throws IOException {
+        if (bb.remaining() < n) {
+            throw new EOFException("Packet too short");
+        }
+    }
+
+    /**
+     * Read a byte
+     * @return value
+     * @throws IOException if the packet is too short
+     */
+    public byte get_byte() throws IOException {
+        available(1);
+        return bb.get();
+    }
+
+    /**
+     * Read a char
+     * @return value
+     * @throws IOException if the packet is too short
+     */
+    public char get_char() throws IOException {
+        available(2);
+        return bb.getChar();
+    }
+
+    /**
+     * Read a short
+     * @return value
+     * @throws IOException if the packet is too short
+     */
+    public short get_short() throws IOException {
+        available(2);
+        return bb.getShort();
+    }
+
+    /**
+     * Read an int
+     * @return value
+     * @throws IOException if the packet is too short
+     */
+    public int get_int() throws IOException {
+        available(4);
+        return bb.getInt();
+    }
+
+    /**
+     * Read a long
+     * @return value
+     * @throws IOException if the packet is too short
+     */
+    public long get_long() throws IOException {
+        available(8);
+        return bb.getLong();
+    }
+
+    /**
+     * Read a sequence of bytes
+     * @param dst  destination array
+     * @param len  number of bytes
+     * @throws IOException if the packet is too short
+     */
+    public void get_bytes(byte[] dst, int len) throws IOException {
+        available(len);
+        bb.get(dst, 0, len);
+    }
+
+    /**
+     * Return the number of bytes not read
+     * @return number of bytes
+     */
+    public int remaining() {
+        return bb.remaining();
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * PacketDispatcher.java
+ *
+ * Table with the handler of each packet type
+ *
+ * Created on 17 de Outubro de 2026, 06:28
+ */
+
+package router;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+
+/**
+ * Dispatches the packets received by a socket to the handler registered for
+ * their code, in a table indexed by the code byte. The code and the sender
+ * are decoded once into a PacketHeader that is reused for all the packets.
+ * The handlers must be registered before the packets are received.
+ */
+public class PacketDispatcher {
+    /** Handlers indexed by packet code */
+    private final PacketHandler[] handlers = new PacketHandler[256];
+    /** Handler of the codes without a handler registered */
+    private PacketHandler default_handler = null;
+    /** Header of the packet being handled */
+    private final PacketHeader header;
+
+    /**
+     * Constructor
+     * @param map_loopback  if true, the handlers get the local host address
+     *                      for the packets sent from a loopback address
+     */
+    public PacketDispatcher(boolean map_loopback) {
+        this.header = new PacketHeader(map_loopback);
+    }
+
+    /**
+     * Register the handler of a packet code, replacing the previous one
+     * @param code     packet code
+     * @param handler  handler, or null to remove it
+     */
+    public void register(byte code, PacketHandler handler) {
+        handlers[code & 0xff] = handler;
+    }
+
+    /**
+     * Register the handler of the codes without a handler
+     * @param handler  handler, or null to ignore these packets
+     */
+    public void register_default(PacketHandler handler) {
+        default_handler = handler;
+    }
+
+    /**
+     * Decode the header of a packet received and call its handler
+     * @param dp  datagram packet
+     * @param pc  packet codec with the packet received
+     * @return the value returned by the handler, or false if there is none
+     * @throws IOException if the packet is too short
+     */
+    public boolean dispatch(DatagramPacket dp, PacketCodec pc) throws IOException {
+        byte code = pc.get_byte();     // read code
+        char sender = pc.get_char();   // read sender id
+        header.set(code, sender, dp);
+        PacketHandler h = handlers[code & 0xff];
+        if (h == null) {
+            h = default_handler;
+        }
+        return (h != null) && h.handle(header, pc);
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * PacketHandler.java
+ *
+ * Interface of the objects that handle one type of packet
+ *
+ * Created on 17 de Outubro de 2026, 06:28
+ */
+
+package router;
+
+import java.io.IOException;
+
+/**
+ * Handler of a packet type, registered in a PacketDispatcher
+ */
+public interface PacketHandler {
+    /**
+     * Handle a packet
+     * @param h   header of the packet (code, sender and datagram)
+     * @param pc  packet codec, positioned after the sender
+     * @return true if the packet was handled successfully, false otherwise
+     * @throws IOException if the packet is too short
+     */
+    public boolean handle(PacketHeader h, PacketCodec pc) throws IOException;
+}
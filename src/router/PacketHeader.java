@@ -0,0 +1,101 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * PacketHeader.java
+ *
+ * Common header of the packets received
+ *
+ * Created on 17 de Outubro de 2026, 06:28
+ */
+
+package router;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Header of a packet received: the code and the sender, decoded once by
+ * the PacketDispatcher, and the datagram. The object is reused for all the
+ * packets received by a socket. The string with the IP address of the
+ * sender is only built if a handler calls ip().
+ */
+public class PacketHeader {
+    /** IP address of the local host, used for the loopback senders */
+    private static volatile String localhost = null;
+
+    /** Packet code */
+    public byte code;
+    /** Sender address */
+    public char sender;
+    /** Datagram packet received */
+    public DatagramPacket dp;
+
+    /** Replace the loopback addresses by the local host address */
+    private final boolean map_loopback;
+    /** IP address of the sender, or null if not built yet */
+    private String ip;
+
+    /**
+     * Constructor
+     * @param map_loopback  if true, ip() returns the local host address for
+     *                      the packets sent from a loopback address
+     */
+    public PacketHeader(boolean map_loopback) {
+        this.map_loopback = map_loopback;
+    }
+
+    /**
+     * Prepare the header for a new packet
+     * @param code    packet code
+     * @param sender  sender address
+     * @param dp      datagram packet received
+     */
+    void set(byte code, char sender, DatagramPacket dp) {
+        this.code = code;
+        this.sender = sender;
+        this.dp = dp;
+        this.ip = null;
+    }
+
+    /**
+     * Return the IP address of the sender
+     * @return IP address string
+     */
+    public String ip() {
+        if (ip == null) {
+            InetAddress addr = dp.getAddress();
+            ip = (map_loopback && addr.isLoopbackAddress()) ? 
+                    local_host_address(addr) : addr.getHostAddress();
+        }
+        return ip;
+    }
+
+    /**
+     * Return the port number of the sender
+     * @return port number
+     */
+    public int port() {
+        return dp.getPort();
+    }
+
+    /**
+     * Return the IP address of the local host, resolved once
+     * @param addr  loopback address, returned if the local host is unknown
+     * @return IP address string
+     */
+    private static String local_host_address(InetAddress addr) {
+        String s = localhost;
+        if (s == null) {
+            try {
+                s = InetAddress.getLocalHost().getHostAddress();
+                localhost = s;
+            } catch (UnknownHostException e) {
+                System.out.println("Error converting address '127.*': " + e);
+                return addr.getHostAddress();
+            }
+        }
+        return s;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * ReliableFlooding.java
+ *
+ * Unicast flooding of ROUTE packets with acknowledgements
+ *
+ * Created on 17 de Outubro de 2026, 06:15
+ */
+
+package router;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.net.DatagramPacket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Reliable flooding of ROUTE packets over unicast, as in OSPF. Each ROUTE
+ * packet sent to a neighbour is kept in the retransmit list of the
+ * neighbour until a PKT_ACK with the same (area, origin, seq), or newer,
+ * is received. A timer retransmits the unacknowledged packets after
+ * RXMT_INTERVAL ms, doubling the interval at each retry; a newer ROUTE
+ * from the same origin replaces the older one in the list.
+ */
+public class ReliableFlooding {
+    /** Initial retransmission interval (ms) */
+    public final static int RXMT_INTERVAL = 50;
+    /** Maximum retransmission interval (ms) */
+    public final static int RXMT_MAX_INTERVAL = 1000;
+    /** Maximum number of retransmissions of a packet */
+    public final static int RXMT_MAX_TRIES = 8;
+
+    /**
+     * ROUTE packet waiting for an acknowledgement
+     */
+    private static class Pending {
+        /** ROUTE packet contents */
+        final byte[] data;
+        /** Sequence number */
+        final int seq;
+        /** Time of the next retransmission (ms, Router.now_ms) */
+        long due;
+        /** Current retransmission interval (ms) */
+        int interval;
+        /** Number of retransmissions */
+        int tries;
+
+        Pending(byte[] data, int seq) {
+            this.data = data;
+            this.seq = seq;
+            this.interval = RXMT_INTERVAL;
+            this.due = Router.now_ms() + interval;
+            this.tries = 0;
+        }
+    }
+
+    /** Routing object */
+    private final Routing route;
+    /** Main window, with the statistics counters */
+    private final Router win;
+    /** Neighbour list */
+    private final NeighbourList neig;
+    /** Retransmit list of each neighbour, indexed by (area, origin) key */
+    private final HashMap<Character, HashMap<Integer, Pending>> lists;
+    /** Timer that checks the retransmit lists */
+    private final LoopTimer timer;
+
+    /**
+     * Constructor
+     * @param route  Routing object, used to send the packets
+     * @param win    main window
+     * @param neig   neighbour list
+     */
+    public ReliableFlooding(Routing route, Router win, NeighbourList neig) {
+        this.route = route;
+        this.win = win;
+        this.neig = neig;
+        this.lists = new HashMap<>();
+        this.timer = new LoopTimer(route.loop(), RXMT_INTERVAL, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent evt) {
+                retransmit();
+            }
+        });
+    }
+
+    /**
+     * Return the retransmit list key of a ROUTE packet
+     * @param area    area
+     * @param origin  origin router
+     * @return key
+     */
+    private static int key(char area, char origin) {
+        return (area << 16) | origin;
+    }
+
+    /**
+     * Flood a ROUTE packet to all the neighbours of an area except one
+     * @param area    area
+     * @param origin  origin router of the ROUTE packet
+     * @param seq     sequence number of the ROUTE packet
+     * @param dp      ROUTE packet
+     * @param exc     neighbour to exclude (the one it was received from), or ' '
+     * @return number of neighbours the packet was sent to
+     */
+    public int flood(char area, char origin, int seq, DatagramPacket dp, char exc) {
+        byte[] data = Arrays.copyOfRange(dp.getData(), dp.getOffset(),
+                dp.getOffset() + dp.getLength());
+        DatagramPacket out = new DatagramPacket(data, data.length);
+        int n = 0;
+        for (Neighbour pt : neig.area_neighbours(area)) {
+            if ((pt.Name() == exc) || (pt.Name() == origin)) {
+                continue;
+            }
+            synchronized (this) {
+                HashMap<Integer, Pending> l = lists.get(pt.Name());
+                if (l == null) {
+                    l = new HashMap<>();
+                    lists.put(pt.Name(), l);
+                }
+                l.put(key(area, origin), new Pending(data, seq));
+                if (!timer.isRunning()) {
+                    timer.start();
+                }
+            }
+            if (route.send_to_neighbour(pt, out)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Handle an acknowledgement
+     * @param from    neighbour that sent the acknowledgement
+     * @param area    area
+     * @param origin  origin router of the ROUTE packet acknowledged
+     * @param seq     sequence number acknowledged
+     */
+    public synchronized void ack(char from, char area, char origin, int seq) {
+        HashMap<Integer, Pending> l = lists.get(from);
+        if (l == null) {
+            return;
+        }
+        Pending p = l.get(key(area, origin));
+        if ((p != null) && (p.seq <= seq)) {
+            l.remove(key(area, origin));
+        }
+    }
+
+    /**
+     * Stop the retransmissions, emptying all the lists
+     */
+    public synchronized void stop() {
+        timer.stop();
+        lists.clear();
+    }
+
+    /**
+     * Handle the timer - retransmit the packets whose interval elapsed
+     */
+    private synchronized void retransmit() {
+        long now = Router.now_ms();
+        Iterator<Character> it = lists.keySet().iterator();
+        while (it.hasNext()) {
+            char name = it.next();
+            HashMap<Integer, Pending> l = lists.get(name);
+            Neighbour pt = neig.locate_neig(name);
+            if (pt == null) {
+                it.remove();    // Neighbour is gone
+                continue;
+            }
+            Iterator<Pending> pit = l.values().iterator();
+            while (pit.hasNext()) {
+                Pending p = pit.next();
+                if (p.due > now) {
+                    continue;
+                }
+                if (p.tries >= RXMT_MAX_TRIES) {
+                    win.Log("ROUTE to " + name + " not acknowledged - dropped\n");
+                    pit.remove();
+                    continue;
+                }
+                route.send_to_neighbour(pt, new DatagramPacket(p.data, p.data.length));
+                win.ROUTE_rxmt++;
+                p.tries++;
+                p.interval = Math.min(2 * p.interval, RXMT_MAX_INTERVAL);
+                p.due = now + p.interval;
+            }
+            if (l.isEmpty()) {
+                it.remove();
+            }
+        }
+        if (lists.isEmpty()) {
+            timer.stop();
+        }
+    }
+}
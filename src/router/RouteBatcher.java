@@ -0,0 +1,133 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * RouteBatcher.java
+ *
+ * Collects the ROUTE packets received in an area during a short window
+ *
+ * Created on 17 de Outubro de 2026, 06:06
+ */
+
+package router;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.HashMap;
+
+/**
+ * Batching stage for the ROUTE packets of one area. The first ROUTE packet
+ * received after an idle period opens a window; the packets received until
+ * the window closes are kept in a list with one element per origin router,
+ * holding only the highest sequence number. When the window closes the
+ * batch is applied to the routing process in one step, so a flood storm
+ * produces a single database update and a single network change.
+ */
+public class RouteBatcher {
+    /** Routing process that receives the batch */
+    private final RoutingProcess rp;
+    /** Single shot timer that closes the window */
+    private final LoopTimer timer;
+    /** Duration of the window (ms) */
+    private final int window;
+
+    /** Newest ROUTE information received from each origin in the window */
+    private HashMap<Character, RouterInfo> batch;
+    /** Number of ROUTE packets received in the window */
+    private int received;
+
+    /**
+     * Constructor
+     * @param rp      routing process of the area
+     * @param window  duration of the coalescing window (ms)
+     */
+    public RouteBatcher(RoutingProcess rp, int window) {
+        this.rp = rp;
+        this.window = window;
+        this.batch = new HashMap<>();
+        this.received = 0;
+        this.timer = new LoopTimer(rp.loop(), window, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent evt) {
+                flush();
+            }
+        });
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Add a ROUTE update to the current window, opening a window if none
+     * is open
+     * @param ri  ROUTE information received
+     * @return true if stored, false if an update with the same or a higher
+     *  sequence number from the same origin is already in the window
+     */
+    public synchronized boolean add(RouterInfo ri) {
+        RouterInfo pt = batch.get(ri.name);
+        if ((pt != null) && (ri.seq <= pt.seq)) {
+            return false;   // Superseded inside the window
+        }
+        batch.put(ri.name, ri);
+        received++;
+        if (!timer.isRunning()) {
+            timer.setInitialDelay(window);
+            timer.restart();
+        }
+        return true;
+    }
+
+    /**
+     * Return the sequence number of the update from an origin waiting in
+     * the current window
+     * @param origin  origin router
+     * @return sequence number, or Integer.MIN_VALUE if there is none
+     */
+    public synchronized int pending_seq(char origin) {
+        RouterInfo pt = batch.get(origin);
+        return (pt == null) ? Integer.MIN_VALUE : pt.seq;
+    }
+
+    /**
+     * Return the update from an origin waiting in the current window
+     * @param origin  origin router
+     * @return ROUTE information, or null if there is none
+     */
+    public synchronized RouterInfo pending(char origin) {
+        return batch.get(origin);
+    }
+
+    /**
+     * Discard the update from an origin waiting in the current window
+     * @param origin  origin router
+     */
+    public synchronized void discard(char origin) {
+        batch.remove(origin);
+    }
+
+    /**
+     * Stop the batcher, discarding the updates of the current window
+     */
+    public synchronized void stop() {
+        timer.stop();
+        batch.clear();
+        received = 0;
+    }
+
+    /**
+     * Close the window - apply the updates collected to the routing process
+     */
+    private void flush() {
+        HashMap<Character, RouterInfo> b;
+        int n;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            b = batch;
+            n = received;
+            batch = new HashMap<>();
+            received = 0;
+        }
+        rp.process_ROUTE_batch(b.values(), n);
+    }
+}
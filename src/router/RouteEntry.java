@@ -12,6 +12,8 @@
 
 package router;
 
+import java.util.Arrays;
+
 public class RouteEntry extends Entry {
 
 // Fields inherited from Entry
@@ -20,6 +22,10 @@ public class RouteEntry extends Entry {
 // New fields
     /** next hop */
     public char next_hop;
+    /** equal cost next hops, next_hop is the first one; null if only next_hop */
+    public char[] next_hops;
+    /** loop-free alternate next hop, used when next_hop fails; ' ' if none */
+    public char alt_hop;
     /** next hop area - from where the route was obtained */
     public char next_hop_area;
     /** Link State Specific field - true=route is final; false=route is tentative */
@@ -32,6 +38,8 @@ public class RouteEntry extends Entry {
     public RouteEntry(char dest) {
         super(dest, Router.MAX_DISTANCE);
         next_hop= ' ';
+        next_hops= null;
+        alt_hop= ' ';
         next_hop_area= ' ';
         ok= false;
     }
@@ -43,6 +51,8 @@ public class RouteEntry extends Entry {
     public RouteEntry(RouteEntry src) {
         super(src);
         next_hop= src.next_hop;
+        next_hops= src.next_hops;
+        alt_hop= src.alt_hop;
         next_hop_area= src.next_hop_area;
         this.ok= false;
     }
@@ -56,6 +66,7 @@ public class RouteEntry extends Entry {
     public RouteEntry(Entry src, char next_hop, char next_hop_area) {
         super(src);
         this.next_hop= next_hop;
+        this.alt_hop= ' ';
         this.next_hop_area= next_hop_area;
         this.ok= false;
     }
@@ -70,10 +81,41 @@ public class RouteEntry extends Entry {
     public RouteEntry(char dest, char next_hop, char next_hop_area, int dist) {
         super(dest, dist);
         this.next_hop= next_hop;
+        this.alt_hop= ' ';
+        this.next_hop_area= next_hop_area;
+        this.ok= false;
+    }
+
+    /**
+     * Constructor - create an entry with equal cost next hops
+     * @param dest           destination address
+     * @param next_hops      equal cost next hops (at least one)
+     * @param next_hop_area  next hop's node area
+     * @param dist           distance
+     */
+    public RouteEntry(char dest, char[] next_hops, char next_hop_area, int dist) {
+        super(dest, dist);
+        this.next_hop= next_hops[0];
+        this.next_hops= (next_hops.length > 1) ? next_hops : null;
+        this.alt_hop= ' ';
         this.next_hop_area= next_hop_area;
         this.ok= false;
     }
 
+    /**
+     * Return a 64 bit hash of the route contents (destination, distance,
+     *  next hops, alternate and area)
+     * @return hash value
+     */
+    @Override
+    public long hash64() {
+        long h= super.hash64();
+        for (int i= 0; i<n_hops(); i++) {
+            h= mix64(h + next_hop(i));
+        }
+        return mix64(h + ((long)alt_hop << 16) + next_hop_area);
+    }
+
     /**
      * compares with another routing entry
      * @param re    comparing object
@@ -81,7 +123,9 @@ public class RouteEntry extends Entry {
      */
     public boolean equals_to (RouteEntry re) {
         return ((Entry)this).equals_to(re) && (this.next_hop==re.next_hop) && 
-                (this.next_hop_area == re.next_hop_area);
+                (this.next_hop_area == re.next_hop_area) &&
+                (this.alt_hop == re.alt_hop) &&
+                Arrays.equals(this.next_hops, re.next_hops);
     }
     
     /**
@@ -100,6 +144,39 @@ public class RouteEntry extends Entry {
      * @return true if is defined, false otherwise
      */
     public boolean has_next() { return next_hop!=' '; }
+
+    /**
+     * Return the number of equal cost next hops
+     * @return number of next hops
+     */
+    public int n_hops() { return (next_hops == null) ? 1 : next_hops.length; }
+
+    /**
+     * Select one of the equal cost next hops
+     * @param hash  flow hash value
+     * @return the next hop selected by the hash
+     */
+    public char next_hop(int hash) {
+        if (next_hops == null) {
+            return next_hop;
+        }
+        return next_hops[(hash & 0x7fffffff) % next_hops.length];
+    }
+
+    /**
+     * Return a string with all the next hops
+     * @return next hops separated by ','
+     */
+    public String hops_string() {
+        if (next_hops == null) {
+            return ""+next_hop;
+        }
+        String s= "";
+        for (int i= 0; i<next_hops.length; i++) {
+            s+= (i>0 ? "," : "")+next_hops[i];
+        }
+        return s;
+    }
     
     /**
      * returns a string with the contents of a RouteEntry object
@@ -107,6 +184,7 @@ public class RouteEntry extends Entry {
      */
     @Override
     public String toString() {
-        return "(dest="+dest+",dist="+dist+", next_hop="+next_hop+"/"+next_hop_area+")";
+        return "(dest="+dest+",dist="+dist+", next_hop="+hops_string()+"/"+next_hop_area+
+                (alt_hop != ' ' ? ", alt="+alt_hop : "")+")";
     }
 }
@@ -26,13 +26,60 @@ public class Router extends javax.swing.JFrame implements Log {
     public final static byte PKT_BYE = 2;    
     public final static byte PKT_ROUTE = 3;  
     public final static byte PKT_DATA = 4;
+    public final static byte PKT_DBD = 5;   // database description
+    public final static byte PKT_LSR = 6;   // link state request
+    public final static byte PKT_ACK = 7;   // ROUTE acknowledgement
+    public final static byte PKT_ROUTE_DELTA = 8;   // ROUTE with only the changes
     /** Maximum valid distance for a route, in the Dijkstra algorithm */
     public final static int MAX_DISTANCE = 39;
     /** Maximum number of areas */
     public final static int MAX_N_AREA = 9;
     /** Maximum path length for a DATA packet */
     public final static int MAX_PATH_LEN = 10;
-    
+    /** Maximum number of equal cost next hops per destination */
+    public final static int MAX_ECMP = 4;
+    /** Number of valid router addresses ('A'-'Z') */
+    public final static int N_ADDR = 26;
+
+    /**
+     * Convert a router address into a dense array index
+     * @param addr router address
+     * @return index in [0, N_ADDR[, or -1 if the address is not valid
+     */
+    public static int addr_index(char addr) {
+        return ((addr >= 'A') && (addr <= 'Z')) ? (addr - 'A') : -1;
+    }
+
+    /**
+     * Convert a dense array index back into a router address
+     * @param index index in [0, N_ADDR[
+     * @return router address
+     */
+    public static char index_addr(int index) {
+        return (char)('A' + index);
+    }
+
+    /**
+     * Monotonic clock, not affected by changes of the system time
+     * @return current time (ms)
+     */
+    public static long now_ms() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * Run a GUI update in the Swing event thread; it runs immediately if
+     *  called from it, otherwise it is queued
+     * @param r  GUI update
+     */
+    public static void run_in_gui(Runnable r) {
+        if (javax.swing.SwingUtilities.isEventDispatchThread()) {
+            r.run();
+        } else {
+            javax.swing.SwingUtilities.invokeLater(r);
+        }
+    }
+
 
     /**
      * Constructor - creates a new form router
@@ -43,10 +90,11 @@ public class Router extends javax.swing.JFrame implements Log {
         // Start Neighbour list
         neig= new NeighbourList(neigTable.getRowCount(), this);
         
-        ds= null;
-        daemon= null;
+        loop= null;
         route= null;
         data_seq= 1;
+        dispatcher= new PacketDispatcher(true);
+        register_handlers();
     }
     
     /** This method is called from within the constructor to
@@ -599,7 +647,7 @@ public class Router extends javax.swing.JFrame implements Log {
             }
             String areas= (n.area != null) ? new String(n.area) : "";
             synchronized (main_lock) {
-                if (neig.del_neig(editNeigName.getText().charAt(0), true, ds)) {
+                if (neig.del_neig(editNeigName.getText().charAt(0), true, loop)) {
                     neig.refresh_table(neigTable);
                     if (sendIfChanges() && !areas.equals("")) {
                         route.network_changed(areas);
@@ -636,7 +684,7 @@ public class Router extends javax.swing.JFrame implements Log {
                               editNeigIP.getText(), 
                               Integer.parseInt(editNeigPort.getText()),
                               Integer.parseInt(editNeigDist.getText()),
-                              ds, null)) {
+                              loop, null)) {
                     neig.refresh_table(neigTable);
                 }
             }
@@ -663,7 +711,7 @@ public class Router extends javax.swing.JFrame implements Log {
                 String areas= local_areas();
                 do {
                     try {
-                        ds= new DatagramSocket(port);
+                        loop= new EventLoop(port, dispatcher, this);
                         active= true;
                     }
                     catch (SocketException se) {
@@ -694,17 +742,18 @@ public class Router extends javax.swing.JFrame implements Log {
 
                 // Start Routing timer
                 route= new Routing(local_name(), neig, period, minInterval, areas,
-                        editIPMulticast.getText(), mport, this, ds, routingTable);
+                        editIPMulticast.getText(), mport, this, loop, routingTable);
                 if (!route.start()) {
                     Log("Failed to boot the routing object\n");
-                    ds.close();
-                    ds= null;
+                    route.stop();
+                    route= null;
+                    loop.close();
+                    loop= null;
                     tbuttonActive.setSelected(false);
                     return;
                 }
-                // Start daemon thread
-                daemon= new Daemon(ds);
-                daemon.start();
+                // Start event loop thread
+                loop.start();
                 // Lock entry windows
                 editName.setEditable(false);                
                 editPort.setEditable(false);
@@ -715,6 +764,7 @@ public class Router extends javax.swing.JFrame implements Log {
                 editPortMulticast.setEditable(false);
                 editIPMulticast.setEditable(false);
                 editAreas.setEditable(false);
+                active_areas= areas;
                 zero_statistics();
             }
             catch (UnknownHostException e) {
@@ -725,6 +775,10 @@ public class Router extends javax.swing.JFrame implements Log {
                 Log("Port number or period invalid: "+e+"\n");
                 tbuttonActive.setSelected(false);
             }
+            catch (IOException e) {
+                Log("Socket failure: "+e+"\n");
+                tbuttonActive.setSelected(false);
+            }
             
         } else {
             // Stop Router
@@ -756,19 +810,19 @@ public class Router extends javax.swing.JFrame implements Log {
      * Stops the Router 
      */
     private void stop_router() {
-        if (daemon != null) {
-            daemon.stopRunning();
-            daemon= null;
+        if (loop != null) {
+            // Stop handling packets and timers; the socket remains open
+            loop.stopRunning();
         }
         if (route != null) {
             route.stop();
             route= null;
         }
-        if (ds != null) {
-            neig.clear_BYE(ds);
+        if (loop != null) {
+            neig.clear_BYE(loop);
             neig.refresh_table(neigTable);
-            ds.close();
-            ds= null;
+            loop.close();
+            loop= null;
         }
         if (tbuttonActive.isSelected()) {
             Log("Router "+local_name()+" stopped\n");
@@ -782,6 +836,7 @@ public class Router extends javax.swing.JFrame implements Log {
         editPortMulticast.setEditable(true);
         editIPMulticast.setEditable(true);
         editAreas.setEditable(true);
+        active_areas= null;
     }
 
     
@@ -813,7 +868,11 @@ public class Router extends javax.swing.JFrame implements Log {
      * @return string with local areas 
      */
     public String local_areas() {
-        String res= editAreas.getText();
+        String res= active_areas;
+        if (res != null) {
+            return res;     // Validated when the router started
+        }
+        res= editAreas.getText();
         if (res.length() <1) {
             Log("Invalid list of Areas\n");
             return null;
@@ -837,154 +896,149 @@ public class Router extends javax.swing.JFrame implements Log {
     
     
     
-    /** 
-     * Thread that handles socket events 
+    /**
+     * Register the handlers of the packets received by the unicast socket
      */
-    public class Daemon extends Thread {
-        volatile boolean keepRunning= true;
-        DatagramSocket ds;
-        
-        // Constructor
-        Daemon(DatagramSocket ds) {
-            this.ds= ds;
-        }
-        
-        // Thread main function
-        @Override
-        public void run() {
-            byte [] buf= new byte[8096];
-            DatagramPacket dp= new DatagramPacket(buf, buf.length);
-            try {
-                while (keepRunning) {
-                    try {
-                        ds.receive(dp);
-                        ByteArrayInputStream BAis= 
-                            new ByteArrayInputStream(buf, 0, dp.getLength());
-                        DataInputStream dis= new DataInputStream(BAis);
-                        System.out.println("Received packet ("+dp.getLength()+
-                            ") from " + dp.getAddress().getHostAddress() +
-                            ":" +dp.getPort());
-                        
-                        synchronized (main_lock) {
-                            process_packet(dp, dis);
-                        }
-                    }
-                    catch (SocketException se) {
-                        if (keepRunning) {
-                            Log("recv UDP SocketException : " + se + "\n");
-                        }
-                    }
-                }
+    private void register_handlers() {
+        dispatcher.register(PKT_HELLO, new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) throws IOException {
+                return process_HELLO(h, pc);
             }
-            catch(IOException e) {
-                if (keepRunning) {
-                    Log("IO exception receiving data from socket : " + e);
-                }
+        });
+        dispatcher.register(PKT_BYE, new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                return process_BYE(h, pc);
             }
-        }
-        
-        // Stop thread
-        public void stopRunning() {
-            keepRunning= false;
-        }
+        });
+        dispatcher.register(PKT_ROUTE, new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                ROUTE_rcv++;
+                return route.process_ROUTE(h, pc);
+            }
+        });
+        dispatcher.register(PKT_ROUTE_DELTA, new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                ROUTE_rcv++;
+                return route.process_ROUTE(h, pc);
+            }
+        });
+        dispatcher.register(PKT_DATA, new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                DATA_rcv++;
+                return route.process_DATA(h, pc);
+            }
+        });
+        dispatcher.register(PKT_DBD, new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                DBD_rcv++;
+                return route.process_DBD(h, pc);
+            }
+        });
+        dispatcher.register(PKT_LSR, new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                LSR_rcv++;
+                return route.process_LSR(h, pc);
+            }
+        });
+        dispatcher.register(PKT_ACK, new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                ACK_rcv++;
+                return route.process_ACK(h, pc);
+            }
+        });
+        dispatcher.register_default(new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                Log("Invalid packet code ("+h.code+")\n");
+                INVALID_rcv++;
+                return false;
+            }
+        });
     }
-
-
     
     /**
-     * handle incoming packets, decoding and processing HELLO and BYE packets
-     * @param dp    datagram packet
-     * @param dis   input stream
+     * Decode and process a HELLO packet
+     * @param h     packet header
+     * @param pc    packet codec, positioned after the sender
      * @return true if packet was processed with success, false otherwise
+     * @throws IOException if the packet is too short
      */
-    boolean process_packet(DatagramPacket dp, DataInputStream dis) {
-        byte code;
-        char sender;
-        try {
-            code= dis.readByte();     // read code
-            sender= dis.readChar();   // read sender id
-            String ip= dp.getAddress().getHostAddress();  // Get sender address            
-            if (ip.startsWith("127.")) {
-                try {
-                    ip= InetAddress.getLocalHost().getHostAddress();
+    private boolean process_HELLO(PacketHeader h, PacketCodec pc) throws IOException {
+        char sender= h.sender;
+        Log("PKT_HELLO("+sender+")\n");
+        HELLO_rcv++;
+        // Update values
+        int dist= pc.get_int();
+        int len= pc.get_int();
+        if (len>MAX_N_AREA) {
+            Log("Invalid area list's length\n");
+            return false;
+        }
+        String area= "";
+        for (int i=0; i<len; i++) {
+            area += pc.get_char();
+        }
+
+        if (pc.remaining() != 0) {
+            Log("Packet too long\n");
+            return false;
+        }
+        if (tbuttonActive.isSelected()) {
+            boolean is_new= (neig.locate_neig(sender) == null);
+            boolean ok= neig.add_neig(sender, h.ip(), h.port(), 
+                dist, loop, area);
+            if (ok) {
+                neig.refresh_table(neigTable);
+                // HELLO is only sent when a neighbour is added: the sender
+                // may have restarted its ROUTE sequence numbers
+                route.invalidate_router(sender);
+                if (is_new) {
+                    // Synchronize the databases with the new neighbour
+                    route.start_db_exchange(sender);
                 }
-                catch (UnknownHostException e) {
-                    Log("Error converting address '127.*'\n");
-                    return false;
+                if (sendIfChanges()) {
+                    route.network_changed(area);
                 }
             }
-            
-            switch(code) {
-                case PKT_HELLO:
-                    Log("PKT_HELLO("+sender+")\n");
-                    HELLO_rcv++;
-                    // Update values
-                    int dist= dis.readInt();
-                    int len= dis.readInt();
-                    if (len>MAX_N_AREA) {
-                        Log("Invalid area list's length\n");
-                        return false;
-                    }
-                    String area= "";
-                    for (int i=0; i<len; i++) {
-                        area += dis.readChar();
-                    }
+        }
+        return true;
+    }
 
-                    if (dis.available() != 0) {
-                        Log("Packet too long\n");
-                        return false;
-                    }
-                    if (tbuttonActive.isSelected()) {
-                        boolean ok= neig.add_neig(sender, ip, dp.getPort(), 
-                            dist, ds, area);
-                        if (ok) {
-                            neig.refresh_table(neigTable);
-                            if (sendIfChanges()) {
-                                route.network_changed(area);
-                            }
-                        }
-                    }
-                    break;
-                    
-                case PKT_BYE:
-                    Log("PKT_BYE("+sender+")\n");
-                    BYE_rcv++;
-                    if (dis.available() != 0) {
-                        Log("Packet too long\n");
-                        return false;
-                    }
-                    if (tbuttonActive.isSelected()) {
-                        Neighbour n= neig.locate_neig(sender);
-                        String areas= (n!=null) ? n.area : null;
-                        boolean ok= neig.del_neig(sender, false, ds);
-                        if (ok) {
-                            neig.refresh_table(neigTable);
-                            if (sendIfChanges()) {
-                                route.network_changed(areas);
-                            }
-                        }
-                    }
-                    break;
-                    
-                case PKT_ROUTE:
-                    ROUTE_rcv++; 
-                    return route.process_ROUTE(sender, dp, ip, dis);
-                    
-                case PKT_DATA:
-                    DATA_rcv++;
-                    return route.process_DATA(sender, dp, ip, dis);
-                    
-                default:
-                    Log("Invalid packet code ("+code+")\n");
-                    INVALID_rcv++;
-                    return false;
+    /**
+     * Decode and process a BYE packet
+     * @param h     packet header
+     * @param pc    packet codec, positioned after the sender
+     * @return true if packet was processed with success, false otherwise
+     */
+    private boolean process_BYE(PacketHeader h, PacketCodec pc) {
+        char sender= h.sender;
+        Log("PKT_BYE("+sender+")\n");
+        BYE_rcv++;
+        if (pc.remaining() != 0) {
+            Log("Packet too long\n");
+            return false;
+        }
+        if (tbuttonActive.isSelected()) {
+            Neighbour n= neig.locate_neig(sender);
+            String areas= (n!=null) ? n.area : null;
+            boolean ok= neig.del_neig(sender, false, loop);
+            if (ok) {
+                neig.refresh_table(neigTable);
+                route.invalidate_router(sender);
+                if (sendIfChanges()) {
+                    route.network_changed(areas);
                 }
             }
-            catch(IOException e) {
-                Log("Packet too short\n");
-                return false;
-            }
-            return true;
+        }
+        return true;
     }
 
     
@@ -1002,7 +1056,12 @@ public class Router extends javax.swing.JFrame implements Log {
      */
     @Override
     public void Log(final java.lang.String s) {
-        textLog.append(s);
+        run_in_gui(new Runnable() {
+            @Override
+            public void run() {
+                textLog.append(s);
+            }
+        });
         System.out.print(s);
     }         
 
@@ -1021,6 +1080,18 @@ public class Router extends javax.swing.JFrame implements Log {
         DATA_rcv= 0;
         INVALID_rcv= 0;
         Dijkstra_cnt= 0;        
+        PRC_cnt= 0;
+        DBD_snt= 0;
+        DBD_rcv= 0;
+        LSR_snt= 0;
+        LSR_rcv= 0;
+        ACK_snt= 0;
+        ACK_rcv= 0;
+        ROUTE_rxmt= 0;
+        ROUTE_dup= 0;
+        ROUTE_stale= 0;
+        ROUTE_delta= 0;
+        ROUTE_nobase= 0;
     }
     
     /** 
@@ -1031,8 +1102,15 @@ public class Router extends javax.swing.JFrame implements Log {
             "HELLO snt:"+HELLO_snt+" rcv:"+HELLO_rcv+
             "; BYE snt:"+BYE_snt+" rcv:"+BYE_rcv+
             "\nROUTE loc:"+ROUTE_loc+" snt:"+ROUTE_snt+" rcv:"+ROUTE_rcv+
+            " dup:"+ROUTE_dup+" stale:"+ROUTE_stale+
+            " delta:"+ROUTE_delta+" nobase:"+ROUTE_nobase+
+            "\nDBD snt:"+DBD_snt+" rcv:"+DBD_rcv+
+            "; LSR snt:"+LSR_snt+" rcv:"+LSR_rcv+
+            "; ACK snt:"+ACK_snt+" rcv:"+ACK_rcv+
+            "; ROUTE rxmt:"+ROUTE_rxmt+
             "\nDATA snt:"+DATA_snt+" rcv:"+DATA_rcv+
-            "; Invalid rcv:"+INVALID_rcv+"; Dijkstra cnt:"+Dijkstra_cnt+"\n"+
+            "; Invalid rcv:"+INVALID_rcv+"; Dijkstra cnt:"+Dijkstra_cnt+
+            "; PRC cnt:"+PRC_cnt+"\n"+
             "************************************************************\n");
     }
     
@@ -1041,16 +1119,18 @@ public class Router extends javax.swing.JFrame implements Log {
     /** Synchronization lock */
     public final Integer main_lock= new Integer(0);
     
-    /** Datagram socket */
-    private DatagramSocket ds;
-    /** Socket daemon */
-    private Daemon daemon;
+    /** Event loop with the sockets and the timers */
+    private EventLoop loop;
     /** meighbour list */
     private final NeighbourList neig;
     /** Routing object */
     private Routing route;
     /** Data sequence counter */
     private int data_seq;
+    /** Handlers of the packets received by the unicast socket */
+    private final PacketDispatcher dispatcher;
+    /** Local areas validated when the router started; null if stopped */
+    private volatile String active_areas;
     
     /* Statistical counters */
     public int HELLO_snt;
@@ -1064,6 +1144,18 @@ public class Router extends javax.swing.JFrame implements Log {
     public int DATA_rcv;
     public int INVALID_rcv;
     public int Dijkstra_cnt;
+    public int PRC_cnt;     // partial route calculations: leaf distances patched, no SPF run
+    public int DBD_snt;
+    public int DBD_rcv;
+    public int LSR_snt;
+    public int LSR_rcv;
+    public int ACK_snt;
+    public int ACK_rcv;
+    public int ROUTE_rxmt;  // ROUTE retransmissions (unicast flooding)
+    public int ROUTE_dup;   // duplicated ROUTE packets dropped before decoding
+    public int ROUTE_stale; // old ROUTE packets dropped before decoding
+    public int ROUTE_delta; // ROUTE delta packets sent
+    public int ROUTE_nobase; // ROUTE delta packets received without the base vector
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     javax.swing.JButton buttonAdd;
@@ -14,8 +14,8 @@
 
 package router;
 
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 
 /**
  * Auxiliary class to hold routing information received from each Router
@@ -37,6 +37,10 @@ public class RouterInfo {
     public int TTL;
     /** Time when the vector was received */
     public Date date;
+    /** Expiration time of the vector (ms, monotonic clock - Router.now_ms) */
+    public long expires;
+    /** Fingerprint of the vector contents (Entry.fingerprint) */
+    public long fingerprint;
     /** Reference to the main window of the GUI */
     private Router win;
 
@@ -59,7 +63,9 @@ public class RouterInfo {
         this.seq = seq;
         this.TTL = TTL;
         this.date = new Date();
+        this.expires = Router.now_ms() + TTL * 1000L;
         this.win = win;
+        this.fingerprint = Entry.fingerprint(vec);
     }
 
     /**
@@ -73,6 +79,8 @@ public class RouterInfo {
         this.seq = src.seq;
         this.TTL = src.TTL;
         this.date = src.date;
+        this.expires = src.expires;
+        this.fingerprint = src.fingerprint;
     }
 
     /**
@@ -83,9 +91,13 @@ public class RouterInfo {
      */
     public void update_vec(Entry[] vec, int seq, int TTL) {
         this.date = new Date(); // Get current time
+        if (vec != this.vec) {
+            fingerprint = Entry.fingerprint(vec);
+        }
         this.vec = vec;
         this.seq = seq;
         this.TTL = TTL;
+        this.expires = Router.now_ms() + TTL * 1000L;
     }
 
     /**
@@ -93,10 +105,7 @@ public class RouterInfo {
      * @return true if is valid, false otherwise
      */
     public boolean vec_valid() {
-        win.Log("RouterInfo.vec_valid not implemented yet\n");
-        // Place here the code to test if the vector stored in vec is valid or not
-        // ...
-        return true;
+        return (vec != null) && (Router.now_ms() <= expires);
     }
 
     /**
@@ -104,24 +113,32 @@ public class RouterInfo {
      * @param _vec  vector to be tested
      * @return true if valid, false otherwise
      */
-    private boolean test_vec_contents(Entry[] _vec) {
+    public boolean test_vec_contents(Entry[] _vec) {
         if (_vec == null) {
             return false;
         }
-        HashMap<String, String> h = new HashMap<>();
-        for (int i = 0; i < _vec.length; i++) {
-            if (h.containsKey("" + _vec[i].dest)) {
+        int seen = 0;   // Bit mask with the destinations found
+        for (Entry e : _vec) {
+            int i = Router.addr_index(e.dest);
+            if (i < 0) {
+                win.Log("Invalid vector - invalid destination '" + e.dest + "'\n");
+                return false;
+            }
+            if ((seen & (1 << i)) != 0) {
                 win.Log("Invalid vector - duplicated destination '"
-                        + _vec[i].dest + "'\n");
+                        + e.dest + "'\n");
                 return false;
             }
-            h.put("" + _vec[i].dest, "");
+            seen |= 1 << i;
         }
         return true;
     }
 
     /**
-     * Test if the objects' vector is equal to _vec
+     * Test if the objects' vector is equal to _vec, ignoring the order of the
+     * elements. Vectors with different lengths or fingerprints are 
+     * different; when the fingerprints match the elements are compared, so
+     * a collision is never taken as equal
      * @param _vec  the vector to be compared
      * @return true if different, false otherwise
      */
@@ -136,17 +153,26 @@ public class RouterInfo {
             return true;
         }
         // both are different of null and _vec is valid
-        if (vec.length != _vec.length) {
+        if (_vec == vec) {
+            return false;
+        }
+        if ((vec.length != _vec.length) || (Entry.fingerprint(_vec) != fingerprint)) {
             return true;
         }
-        int cnt = 0;
-        for (int i = 0; i < vec.length; i++) {
-            for (int j= 0; j < _vec.length; j++) {
-                if (vec[i].equals_to(_vec[j])) {
-                    cnt++;
-                }
+        // Same fingerprint - confirm with the distance of each destination
+        int[] dist = new int[Router.N_ADDR];
+        Arrays.fill(dist, -1);
+        for (Entry e : vec) {
+            int i = Router.addr_index(e.dest);
+            if (i >= 0) {
+                dist[i] = e.dist;
+            }
+        }
+        for (Entry e : _vec) {
+            if (dist[Router.addr_index(e.dest)] != e.dist) {
+                return true;
             }
         }
-        return (cnt != vec.length);
+        return false;
     }
 }
@@ -16,6 +16,8 @@ package router;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.*;
 
 
@@ -28,6 +30,38 @@ public class Routing implements Log {
     public final int MAX_ENTRY_VEC_LEN= 30;
     /** Time added to the period to define the TTL field of the ROUTE packets */ 
     public final int TTL_ADD= 6;
+    /** Update the shortest path tree incrementally when only some vectors change */
+    public final boolean INCREMENTAL_SPF= true;
+    /** Run the SPF of the different areas concurrently in area border routers */
+    public final boolean PARALLEL_SPF= true;
+    /** Calculate loop-free alternate next hops, used when a next hop fails */
+    public final boolean LFA= true;
+    /** Delay before the route calculation after a quiet period (ms) */
+    public final int SPF_START_DELAY= 50;
+    /** Maximum hold time between route calculations during bursts (ms) */
+    public final int SPF_MAX_HOLD= 5000;
+    /** Window used to coalesce the ROUTE packets received (ms); 0 disables */
+    public final int ROUTE_BATCH_WINDOW= 20;
+    /** Keep a memory-mapped copy of the LSDB and routing table for warm restart */
+    public final boolean LSDB_SNAPSHOT= true;
+    /** Flood ROUTE packets over unicast to the neighbours, with acknowledgements
+     *  and retransmissions, instead of sending them to the multicast group */
+    public final boolean UNICAST_FLOODING= false;
+    /** Number of ROUTE delta packets (only with the changes to the previous 
+     *  ROUTE) sent between complete ROUTE packets; 0 disables the deltas */
+    public final int ROUTE_FULL_REFRESH= 4;
+    /** Length of the DATA header: code, sender, seq, dest and message length */
+    public final static int DATA_HEADER_LEN= 1+2+4+2+2;
+    /** Length of the ROUTE header: code, sender, area, seq and TTL */
+    public final static int ROUTE_HEADER_LEN= 1+2+2+4+4;
+    /** SPF request: only calculate the routing table */
+    public final static int SPF_ONLY= 0;
+    /** SPF request: calculate and send the ROUTE packet if the vector changed */
+    public final static int SPF_SEND= 1;
+    /** SPF request: calculate and send the ROUTE packet */
+    public final static int SPF_SEND_ALWAYS= 2;
+    /** DBD flag: first DBD of an exchange, the receiver replies with its own */
+    public final static byte DBD_INIT= 1;
     
         
     /**
@@ -40,58 +74,181 @@ public class Routing implements Log {
      * @param multi_addr    multicast IP address
      * @param multi_port    multicast port number
      * @param win           reference to main window object
-     * @param ds            unicast datagram socket
+     * @param loop          event loop with the sockets and the timers
      * @param tableObj      reference to routing table graphical object
      */
     public Routing(char local_name, NeighbourList neig, int period, 
             int min_interval, String areas, String multi_addr, int multi_port,
-            Router win,  DatagramSocket ds, JTable tableObj) {
+            Router win,  EventLoop loop, JTable tableObj) {
         this.local_name= local_name;
-        this.areas= "0"; // this.areas= areas;
+        this.win= win;
+        this.loop= loop;
         if ((areas == null) || (areas.length()<1)) {
             Log2("Invalid areas in routing constructor");
+            this.areas= null;
             this.rprocesses= null;
         } else {
+            // Area '0' goes first, it is the base of the global routing table
+            this.areas= areas.contains("0") ? 
+                    "0"+areas.replace("0", "") : areas;
             this.rprocesses= new HashMap<>();
-            
-            // Incomplete - This version ignores the areas introduced in the GUI   
-            // Plase modify to support multiple areas, if you have time !
-            
-            Log("routing class only supports one area for now!\n\tUsing only area 0\n");
-            this.rprocesses.put('0', 
-                    new RoutingProcess(this, win, neig, '0', period, min_interval));            
+            for (int i= 0; i<this.areas.length(); i++) {
+                char a= this.areas.charAt(i);
+                this.rprocesses.put(a, 
+                    new RoutingProcess(this, win, neig, a, period, min_interval));
+            }
+        }
+        LsdbSnapshot snap= null;
+        if (LSDB_SNAPSHOT) {
+            File f= new File(System.getProperty("java.io.tmpdir"), 
+                    "rit_lsdb_"+local_name+".dat");
+            try {
+                snap= new LsdbSnapshot(f, local_name, win);
+            } catch (IOException e) {
+                Log("Cannot map LSDB snapshot '"+f+"': "+e+"\n");
+            }
+        }
+        this.snapshot= snap;
+        if (PARALLEL_SPF && (rprocesses != null) && (rprocesses.size() > 1)) {
+            this.spf_pool= Executors.newFixedThreadPool(rprocesses.size());
+        } else {
+            this.spf_pool= null;
         }
         
+        this.spf_timer= new LoopTimer(loop, 0, new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                run_pending_spf();
+            }
+        });
+        this.spf_timer.setRepeats(false);
+        
         this.neig= neig;
+        this.flooding= UNICAST_FLOODING ? new ReliableFlooding(this, win, neig) : null;
         this.local_TTL= period+TTL_ADD;
-        this.win= win;
-        this.ds= ds;
         this.tableObj= tableObj;
         // Initialize everything
-        this.mdaemon= new MulticastDaemon(ds, multi_addr, multi_port, win, this);
-        this.main_rtab= null;
+        this.multi_addr= multi_addr;
+        this.multi_port= multi_port;
+        this.mdispatcher= new PacketDispatcher(false);
+        PacketHandler route_handler= new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                return process_multicast_ROUTE(h, pc);
+            }
+        };
+        mdispatcher.register(Router.PKT_ROUTE, route_handler);
+        mdispatcher.register(Router.PKT_ROUTE_DELTA, route_handler);
+        mdispatcher.register_default(new PacketHandler() {
+            @Override
+            public boolean handle(PacketHeader h, PacketCodec pc) {
+                Log("Invalid mpacket type: "+h.code+"\n");
+                return false;
+            }
+        });
+        this.main_rtab= new AtomicReference<>(null);
+        this.fib= new AtomicReference<>(null);
         Log2("new Routing(local='"+local_name+"', period="+period+
             ", min_interval="+min_interval+")");
     }
 
     
+    /**
+     * Return the event loop that runs the timers of the routing processes
+     * @return event loop
+     */
+    public EventLoop loop() {
+        return loop;
+    }
+
     /**
      * Start the Routing processes and timers
      * @return true is running, false if starting failed
      */
     public boolean start() {
-        // Start mdaemon thread
-        if (!mdaemon.valid()) {
+        // Join the multicast group, served by the event loop
+        if (!loop.join_group(multi_addr, multi_port, mdispatcher)) {
             return false;
         }
-        if (!mdaemon.isAlive()) {
-            mdaemon.start();
+        if (!load_snapshot()) {
+            update_global_routing_table();
         }
-        update_global_routing_table();
         start_announce_timer();
         return true;
     }
 
+    /**
+     * Warm restart - load the LSDB and install the routing table stored in
+     *  the snapshot. The routes are revalidated by the next calculations, 
+     *  as HELLO and ROUTE packets are received.
+     * @return true if a routing table was installed, false otherwise
+     */
+    private boolean load_snapshot() {
+        if ((snapshot == null) || (rprocesses == null)) {
+            return false;
+        }
+        int n= 0;
+        for (RoutingProcess rp : rprocesses.values()) {
+            ArrayList<RouterInfo> list= snapshot.load_routers(rp.area);
+            rp.restore(list, snapshot.load_route_seq(rp.area));
+            n+= list.size();
+        }
+        RoutingTable rt= snapshot.load_table();
+        if (rt.get_routeset().isEmpty()) {
+            return false;
+        }
+        publish(rt);
+        update_routing_window();
+        Log("Warm restart: "+n+" ROUTE vectors and "+rt.get_routeset().size()+
+                " routes loaded\n");
+        return true;
+    }
+
+    /**
+     * Store the ROUTE information of a router in the LSDB snapshot
+     * @param ri  router information
+     */
+    public void snapshot_router(RouterInfo ri) {
+        if (snapshot != null) {
+            snapshot.store_router(ri);
+        }
+    }
+
+    /**
+     * Calculate the checksum of a ROUTE packet contents, after the header,
+     *  stored in the duplicate cache
+     * @param dp  ROUTE packet
+     * @return checksum
+     */
+    private static long route_checksum(DatagramPacket dp) {
+        return DuplicateCache.checksum(dp.getData(), dp.getOffset()+ROUTE_HEADER_LEN, 
+                dp.getLength()-ROUTE_HEADER_LEN);
+    }
+
+    /**
+     * Handle the expiration of the ROUTE information of a router, removing it
+     *  from the duplicate cache and from the LSDB snapshot
+     * @param area  area number
+     * @param name  router address
+     */
+    public void router_expired(char area, char name) {
+        dup_cache.invalidate(area, name);
+        if (snapshot != null) {
+            snapshot.clear_router(area, name);
+        }
+    }
+
+    /**
+     * Store the last ROUTE sequence number sent in an area in the snapshot
+     * @param area  area number
+     * @param seq   sequence number
+     */
+    public void snapshot_route_seq(char area, int seq) {
+        if (snapshot != null) {
+            snapshot.store_route_seq(area, seq);
+        }
+    }
+
 
     /**
      * Return the local name
@@ -131,29 +288,33 @@ public class Routing implements Log {
     }
 
     /**
-     * Handle the notification from the Routing process about route calculation
-     * @param c_area area number
-     * @param changed true if due to network changing
+     * Request the calculation of the routing table of an area. The requests
+     *  made while the event loop handles the same wakeup (e.g. the SPF 
+     *  timers of several areas) are run together, by run_pending_spf.
+     * @param c_area  area number
+     * @param mode    SPF_ONLY, SPF_SEND or SPF_SEND_ALWAYS
      */
-    public void area_tab_calculated(char c_area, boolean changed) {
-        
-        Log("Routing.area_tab_calculated() only supports one area for now!\n");
-        
-        // Always updates the global routing table with the table from c_area
-        // With multiple areas, the table from area 0 is used
-        
-        RoutingProcess rp= get_Routing_process(c_area);
-        if (rp == null) {
-            Log("Internal error: area_changed("+c_area+") - null area process\n");
-            return;
+    public void request_spf(char c_area, int mode) {
+        synchronized (spf_pending) {
+            Integer m= spf_pending.get(c_area);
+            spf_pending.put(c_area, (m == null) ? mode : Math.max(m, mode));
         }
-        // Update global Routing table
-        main_rtab = rp.get_routing_table();
-
-        // main_rtab.Log_routing_table(this);
+        spf_timer.start();
+    }
 
-        // Display Routing table 
-        update_routing_window();
+    /**
+     * Handle the SPF timer - run the calculations requested
+     */
+    private void run_pending_spf() {
+        HashMap<Character, Integer> req;
+        synchronized (spf_pending) {
+            if (spf_pending.isEmpty()) {
+                return;
+            }
+            req= new HashMap<>(spf_pending);
+            spf_pending.clear();
+        }
+        run_spf(req);
     }
 
     /**
@@ -164,13 +325,13 @@ public class Routing implements Log {
         if ((_areas == null) || (areas == null)){
             return;
         }
-        Log("Routing.network_changed("+_areas+") not implemented yet\n");
-        
-        // If you have time, you must complete this function to address
-        // handling SendIfChanges modifications! 
-
-        // It must call the method network_changed for all RoutingProcess objects
-        // Starting from non-'0' areas, and running the '0' area at the end
+        // Non-'0' areas first, area '0' at the end
+        for (int i= areas.length()-1; i>=0; i--) {
+            char a= areas.charAt(i);
+            if (_areas.indexOf(a) != -1) {
+                rprocesses.get(a).network_changed(true);
+            }
+        }
     }
 
     
@@ -178,24 +339,37 @@ public class Routing implements Log {
      * Stop all the Routing processes and resets the Routing state
      */
     public void stop() {
-        // Stop multicast daemon
-        mdaemon.stopRunning();
-        mdaemon= null;
+        // Leave the multicast group
+        loop.leave_group();
         
         stop_announce_timer();
+        spf_timer.stop();
+        synchronized (spf_pending) {
+            spf_pending.clear();
+        }
+        if (spf_pool != null) {
+            spf_pool.shutdownNow();
+        }
+        if (snapshot != null) {
+            snapshot.close();
+        }
+        if (flooding != null) {
+            flooding.stop();
+        }
+        dup_cache.clear();
         // Clean Routing information
         if (rprocesses != null)
             rprocesses.clear();
         // Clean Routing table
-        if (main_rtab != null)
-            main_rtab.clear();
+        main_rtab.set(null);
+        fib.set(null);
         // Clear Routing table window
         update_routing_window();
 
         local_name= ' ';
         neig= null;
         win= null;
-        ds= null;
+        loop= null;
         tableObj= null;
     }
         
@@ -208,33 +382,43 @@ public class Routing implements Log {
      * @return the ROUTE packet, or null if error
      */
     public DatagramPacket make_ROUTE_packet(char name, char area, int seq, 
-            Entry[] vec) {        
+            Entry[] vec) {
+        return make_ROUTE_packet(name, area, seq, local_TTL, vec);
+    }
+    
+    /**
+     * Prepare a ROUTE packet with a given TTL, used to send the ROUTE 
+     *  information stored from other routers
+     * @param name  origin name (address)
+     * @param area  area
+     * @param seq   sequence number
+     * @param TTL   Time To Live (s)
+     * @param vec   Neighbour Entry vector
+     * @return the ROUTE packet, or null if error; it is encoded in the 
+     *  PacketCodec of the thread, so it must be sent before the next packet
+     */
+    public DatagramPacket make_ROUTE_packet(char name, char area, int seq, 
+            int TTL, Entry[] vec) {        
         if (vec == null) {
             Log("ERROR: null vec in send_ROUTE_packet\n");
             return null;
         }
-        Log2("make_ROUTE_packet("+name+seq+","+local_TTL+","+"[");
+        Log2("make_ROUTE_packet("+name+seq+","+TTL+","+"[");
         for (int i=0;i<vec.length;i++) {
             Log2(""+(i>0?",":"")+vec[i].toString());
         }
         Log2("])\n");
         
-        ByteArrayOutputStream os= new ByteArrayOutputStream();
-        DataOutputStream dos= new DataOutputStream(os);
         try {
-            dos.writeByte(Router.PKT_ROUTE);
-            dos.writeChar(name);
-            dos.writeChar(area);
-            dos.writeInt(seq);
-            dos.writeInt(local_TTL);
-            dos.writeInt(vec.length);
+            PacketCodec pc= PacketCodec.encoder().begin(Router.PKT_ROUTE, name);
+            pc.put_char(area);
+            pc.put_int(seq);
+            pc.put_int(TTL);
+            pc.put_int(vec.length);
             for (Entry vec1 : vec) {
-                vec1.writeEntry(dos);
+                vec1.writeEntry(pc);
             }
-            byte [] buffer = os.toByteArray();
-            DatagramPacket dp= new DatagramPacket(buffer, buffer.length);
-            
-            return dp;
+            return pc.packet();
         }
         catch (IOException e) {
             Log("Error making ROUTE: "+e+"\n");                    
@@ -244,37 +428,152 @@ public class Routing implements Log {
 
 
     /**
-     * Return the initial Routing table for area 'area' with only the direct neighbours
-     * @param area the area requested
-     * @return a Routing table with only the direct neighbors (except for area '0')
+     * Prepare a ROUTE delta packet, with the entries added or modified and
+     *  the destinations removed since the ROUTE packet with sequence number
+     *  base. The format is: code, name, area, seq, TTL, base, n, n x Entry,
+     *  r, r x removed destination.
+     * @param name     local name (address)
+     * @param area     local area
+     * @param seq      sequence number
+     * @param base     sequence number of the ROUTE packet with old_vec
+     * @param old_vec  Entry vector sent in the packet base
+     * @param vec      current Neighbour Entry vector
+     * @return the ROUTE delta packet, or null if error or if it would not be
+     *  shorter than the complete ROUTE packet
      */
-    public RoutingTable local_route_table(char area) {
-        // Get local vec
-        Entry[] lvec = neig.local_vec(true, area);
-        if (lvec == null) { // No local information ??
-            win.Log("Internal error in Routing.local_vec\n");
+    public DatagramPacket make_ROUTE_delta_packet(char name, char area, int seq, 
+            int base, Entry[] old_vec, Entry[] vec) {
+        if ((vec == null) || (old_vec == null)) {
             return null;
         }
-        RoutingTable auxtab= new RoutingTable();
-       
-        // Prepare an initial routing table with the elements of the vector
-        Log("Routing.local_route_table(area) not implemented yet\n");
-        
-        // Place here the code to create and fill the routing table auxtab.
-        // Look at the constructors of class RouteEntry and pick the best one to instantiate new objects from Entry objects
-        // ...
-        
-        // This function is incomplete for a multi-area routing LS protocol
-        // OSPF has a core area ('0') that may connect other peripheric areas
-        //     ('1'-'9') using a star topology. Therefore, the area '0' border
-        //     routers disseminate the routes received from other areas on 
-        //     area '0' and build a complete routing table.
-        //     Then, they send the complete table to the other areas.
-        // ...
-        
-        return null;
+        int n= 0;   // Entries added or modified
+        for (Entry e : vec) {
+            if (!contains_entry(old_vec, e, true)) {
+                n++;
+            }
+        }
+        int r= 0;   // Destinations removed
+        for (Entry e : old_vec) {
+            if (!contains_entry(vec, e, false)) {
+                r++;
+            }
+        }
+        // Lengths written below and by make_ROUTE_packet
+        int full_len= ROUTE_HEADER_LEN+4+vec.length*Entry.ENTRY_LEN;
+        int delta_len= ROUTE_HEADER_LEN+4+4+n*Entry.ENTRY_LEN+4+r*2;
+        if (delta_len >= full_len) {
+            return null;
+        }
+        try {
+            PacketCodec pc= PacketCodec.encoder().begin(Router.PKT_ROUTE_DELTA, name);
+            pc.put_char(area);
+            pc.put_int(seq);
+            pc.put_int(local_TTL);
+            pc.put_int(base);
+            pc.put_int(n);
+            for (Entry e : vec) {
+                if (!contains_entry(old_vec, e, true)) {
+                    e.writeEntry(pc);
+                }
+            }
+            pc.put_int(r);
+            for (Entry e : old_vec) {
+                if (!contains_entry(vec, e, false)) {
+                    pc.put_char(e.dest);
+                }
+            }
+            return pc.packet();
+        }
+        catch (IOException e) {
+            Log("Error making ROUTE delta: "+e+"\n");                    
+            return null;
+        }
+    }
+
+    /**
+     * Test if a vector has an Entry for a destination
+     * @param vec        Entry vector
+     * @param e          Entry
+     * @param same_dist  if true, the distance must also be equal
+     * @return true if found, false otherwise
+     */
+    private static boolean contains_entry(Entry[] vec, Entry e, boolean same_dist) {
+        for (Entry v : vec) {
+            if ((v.dest == e.dest) && (!same_dist || (v.dist == e.dist))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Prepare a DBD packet with the summary of the link state database
+     * @param area   area
+     * @param flags  DBD flags (DBD_INIT)
+     * @param list   summaries (origin, sequence number and fingerprint)
+     * @return the DBD packet, or null if error
+     */
+    public DatagramPacket make_DBD_packet(char area, byte flags, 
+            Collection<RouterInfo> list) {
+        try {
+            PacketCodec pc= PacketCodec.encoder().begin(Router.PKT_DBD, local_name);
+            pc.put_char(area);
+            pc.put_byte(flags);
+            pc.put_int(list.size());
+            for (RouterInfo ri : list) {
+                pc.put_char(ri.name);
+                pc.put_int(ri.seq);
+                pc.put_long(ri.fingerprint);
+            }
+            return pc.packet();
+        }
+        catch (IOException e) {
+            Log("Error making DBD: "+e+"\n");                    
+            return null;
+        }
+    }
+
+    /**
+     * Prepare a LSR packet requesting the ROUTE information of some routers
+     * @param area     area
+     * @param origins  list of origin routers requested
+     * @return the LSR packet, or null if error
+     */
+    public DatagramPacket make_LSR_packet(char area, Collection<Character> origins) {
+        try {
+            PacketCodec pc= PacketCodec.encoder().begin(Router.PKT_LSR, local_name);
+            pc.put_char(area);
+            pc.put_int(origins.size());
+            for (char c : origins) {
+                pc.put_char(c);
+            }
+            return pc.packet();
+        }
+        catch (IOException e) {
+            Log("Error making LSR: "+e+"\n");                    
+            return null;
+        }
+    }
+
+    /**
+     * Send a packet to a neighbour using the unicast socket
+     * @param pt  neighbour
+     * @param dp  datagram packet
+     * @return true if sent, false otherwise
+     */
+    public boolean send_to_neighbour(Neighbour pt, DatagramPacket dp) {
+        if ((dp == null) || (loop == null)) {
+            return false;
+        }
+        try {
+            pt.send_packet(loop, dp);
+            return true;
+        } catch (IOException e) {
+            Log("Error sending packet to "+pt.Name()+": "+e+"\n");
+            return false;
+        }
     }
- 
 
     /**
      * Return the local Entry vector for area 'area', used to prepare the ROUTE packet
@@ -300,54 +599,149 @@ public class Routing implements Log {
     
     /** Unmarshalls unicast ROUTE packet e process it */
     /**
-     * Unmarshall a ROUTE packet and process it
-     * @param sender    the sender address
-     * @param dp        datagram packet
-     * @param ip        IP address of the sender
-     * @param dis       input stream object
-     * @return true if packet was handled successfully, false if error
+     * Remove the ROUTE information of a neighbour router from all the areas,
+     *  when its adjacency is lost (BYE) or re-established (HELLO from a
+     *  known neighbour, which restarted); the routing tables are updated
+     *  by the network change that follows
+     * @param name  router address
      */
-    public boolean process_ROUTE(char sender, DatagramPacket dp, 
-            String ip, DataInputStream dis) {
-        
-        if (sender == local_name) {
-            Log2("Packet loopback in process_ROUTE - ignored\n");
-            return true;
+    public void invalidate_router(char name) {
+        if (rprocesses == null) {
+            return;
+        }
+        for (RoutingProcess rp : rprocesses.values()) {
+            rp.invalidate_router(name);
         }
+    }
+
+    /**
+     * Unmarshall a unicast ROUTE or ROUTE delta packet and process it
+     * @param h         packet header (code, sender and datagram)
+     * @param pc        packet codec, positioned after the sender
+     * @return true if packet was handled successfully, false if error
+     */
+    public boolean process_ROUTE(PacketHeader h, PacketCodec pc) {
+        // Neighbour that transmitted the packet, when flooding over unicast
+        Neighbour from= (flooding != null) ? neig.locate_neig(h.ip(), h.port()) : null;
+        return process_ROUTE(h, pc, from);
+    }
+
+    /**
+     * Unmarshall a ROUTE packet and process it; if it was received from a
+     *  neighbour by unicast flooding, acknowledge it and reflood it to the
+     *  other neighbours when it is newer than the one stored. The vector of
+     *  a ROUTE delta packet is rebuilt from the stored vector; if it is not
+     *  the base of the delta, the complete vector is requested with a LSR.
+     * @param h         packet header; the code is PKT_ROUTE or PKT_ROUTE_DELTA
+     *                  and the sender is the origin
+     * @param pc        packet codec, positioned after the sender
+     * @param from      neighbour that sent the packet, or null
+     * @return true if packet was handled successfully, false if error
+     */
+    private boolean process_ROUTE(PacketHeader h, PacketCodec pc, Neighbour from) {
+        byte code= h.code;
+        char sender= h.sender;
+        DatagramPacket dp= h.dp;
         try {
-            char area= dis.readChar();
+            char area= pc.get_char();
             if (!in_area(area)) {
                 Log2("process_ROUTE ignored PKT_ROUTE("+sender+'('+area+"))");
                 return true;   // Ignored packet
             }
+            int seq= pc.get_int();
+            if (from != null) {
+                send_ACK(from, area, sender, seq);
+            }
+            if (sender == local_name) {
+                Log2("Packet loopback in process_ROUTE - ignored\n");
+                return true;
+            }
+            int TTL= pc.get_int();
+            // Drop old packets after reading only the header, and copies
+            // before decoding the vector
+            long cs= 0;
+            int dup= dup_cache.check(area, sender, seq);
+            switch (dup) {
+                case DuplicateCache.STALE:
+                    win.ROUTE_stale++;
+                    return true;
+                case DuplicateCache.SAME_SEQ:
+                    cs= route_checksum(dp);
+                    if (dup_cache.is_duplicate(area, sender, cs)) {
+                        win.ROUTE_dup++;
+                        return true;
+                    }
+                    break;
+            }
 
-            Log("PKT_ROUTE("+sender+'('+area+"),");
+            RoutingProcess rp = get_Routing_process(area);
+            if (rp == null) {
+                return false;
+            }
+            boolean delta= (code == Router.PKT_ROUTE_DELTA);
+            Log((delta ? "PKT_ROUTE_DELTA(" : "PKT_ROUTE(")+sender+'('+area+"),");
             String aux;
-            int seq= dis.readInt();
             aux= "seq="+seq+",";
-            int TTL= dis.readInt();
             aux+= "TTL="+TTL+",";
-            int n= dis.readInt();
+            int base= 0;
+            if (delta) {
+                base= pc.get_int();
+                aux+= "base="+base+",";
+            }
+            int n= pc.get_int();
             aux+= "List:"+n+": ";
-            if ((n<=0) || (n>MAX_ENTRY_VEC_LEN)) {
+            if ((n<(delta ? 0 : 1)) || (n>MAX_ENTRY_VEC_LEN)) {
                 Log("\nInvalid list length '"+n+"'\n");
                 return false;
             }
             Entry [] data= new Entry [n];
             for (int i= 0; i<n; i++) {
                 try {
-                    data[i]= new Entry(dis);
+                    data[i]= new Entry(pc);
                 } catch(IOException e) {
                     Log("\nERROR - Invalid vector Entry: "+e.getMessage()+"\n");
                     return false;                    
                 }
                 aux+= (i==0 ? "" : " ; ") + data[i].toString();
             }
+            char [] removed= null;
+            if (delta) {
+                int r= pc.get_int();
+                if ((r<0) || (r>MAX_ENTRY_VEC_LEN)) {
+                    Log("\nInvalid removed list length '"+r+"'\n");
+                    return false;
+                }
+                aux+= " Removed:"+r+": ";
+                removed= new char [r];
+                for (int i= 0; i<r; i++) {
+                    removed[i]= pc.get_char();
+                    aux+= removed[i];
+                }
+            }
             Log(aux+")\n");
 
             // Update Router vector
-            RoutingProcess rp = get_Routing_process(area);
-            return (rp != null) && rp.process_ROUTE(sender, seq, TTL, data);
+            boolean fresh= (from != null) && rp.is_newer(sender, seq);
+            boolean ok= true;
+            if (delta) {
+                data= rp.apply_ROUTE_delta(sender, base, data, removed);
+            }
+            if (data != null) {
+                if (dup != DuplicateCache.SAME_SEQ) {
+                    cs= route_checksum(dp);
+                }
+                dup_cache.update(area, sender, seq, cs, TTL);
+                ok= rp.process_ROUTE(sender, seq, TTL, data);
+            } else {
+                // Base vector unknown - request the complete one
+                win.ROUTE_nobase++;
+                request_ROUTE(area, sender, 
+                        (from != null) ? from : neig.locate_neig(h.ip(), h.port()));
+            }
+            if (fresh) {
+                flooding.flood(area, sender, seq, dp, from.Name());
+            }
+            return ok;
         } catch (IOException e) {
             Log("\nERROR - Packet too short\n");
             return false;
@@ -355,89 +749,397 @@ public class Routing implements Log {
     }
 
     /**
-     * Handle multicast ROUTE packets
+     * Handle multicast ROUTE and ROUTE delta packets
      *
-     * @param sender sender address
-     * @param dp datagram packet received
-     * @param ip IP address
-     * @param dis input stream
+     * @param h packet header (code, sender and datagram)
+     * @param pc packet codec, positioned after the sender
      * @return true if handled successfully, false otherwise
      */
-    public boolean process_multicast_ROUTE(char sender, DatagramPacket dp,
-            String ip, DataInputStream dis) {
-        if (sender == local_name) {
+    public boolean process_multicast_ROUTE(PacketHeader h, PacketCodec pc) {
+        if (h.sender == local_name) {
             // Packet loopback - ignore
             return true;
         }
         Log2("multicast ");
-        return process_ROUTE(sender, dp, ip, dis);
+        return process_ROUTE(h, pc, null);
+    }
+
+    /**
+     * Request the complete ROUTE information of a router with a LSR packet
+     * @param area    area
+     * @param origin  origin router
+     * @param pt      neighbour that sent the ROUTE delta, or null to use
+     *                another neighbour of the area
+     */
+    private void request_ROUTE(char area, char origin, Neighbour pt) {
+        if (pt == null) {
+            ArrayList<Neighbour> list= neig.area_neighbours(area);
+            if (list.isEmpty()) {
+                return;
+            }
+            pt= list.get(0);
+        }
+        if (send_to_neighbour(pt, make_LSR_packet(area, Collections.singletonList(origin)))) {
+            win.LSR_snt++;
+        }
+    }
+
+    /**
+     * Send a ROUTE packet to the other routers of an area: flooded to the
+     *  neighbours if UNICAST_FLOODING is set, or sent to the multicast group
+     * @param area    area
+     * @param origin  origin router
+     * @param seq     sequence number
+     * @param dp      ROUTE packet
+     * @return true if sent, false otherwise
+     */
+    public boolean send_ROUTE(char area, char origin, int seq, DatagramPacket dp) {
+        if (dp == null) {
+            return false;
+        }
+        if (flooding != null) {
+            flooding.flood(area, origin, seq, dp, ' ');
+            return true;
+        }
+        try {
+            loop.send_group(dp);
+            return true;
+        } catch (IOException e) {
+            Log("Error sending ROUTE: "+e+"\n");
+            return false;
+        }
+    }
+
+    /**
+     * Acknowledge a ROUTE packet received by unicast flooding
+     * @param pt      neighbour that sent the ROUTE packet
+     * @param area    area
+     * @param origin  origin router of the ROUTE packet
+     * @param seq     sequence number
+     */
+    private void send_ACK(Neighbour pt, char area, char origin, int seq) {
+        try {
+            PacketCodec pc= PacketCodec.encoder().begin(Router.PKT_ACK, local_name);
+            pc.put_char(area);
+            pc.put_int(1);
+            pc.put_char(origin);
+            pc.put_int(seq);
+            if (send_to_neighbour(pt, pc.packet())) {
+                win.ACK_snt++;
+            }
+        }
+        catch (IOException e) {
+            Log("Error making ACK: "+e+"\n");
+        }
+    }
+
+    /**
+     * Unmarshall an ACK packet and remove the packets acknowledged from the
+     *  retransmit list of the neighbour
+     * @param h         packet header (code, sender and datagram)
+     * @param pc        packet codec, positioned after the sender
+     * @return true if packet was handled successfully, false if error
+     */
+    public boolean process_ACK(PacketHeader h, PacketCodec pc) {
+        char sender= h.sender;
+        try {
+            char area= pc.get_char();
+            int n= pc.get_int();
+            Log2("PKT_ACK("+sender+'('+area+"),n="+n+")\n");
+            if ((n<0) || (n>Router.N_ADDR)) {
+                Log("\nInvalid acknowledgement list length '"+n+"'\n");
+                return false;
+            }
+            for (int i= 0; i<n; i++) {
+                char origin= pc.get_char();
+                int seq= pc.get_int();
+                if (flooding != null) {
+                    flooding.ack(sender, area, origin, seq);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log("\nERROR - Packet too short\n");
+            return false;
+        }
     }
     
 
+    /**
+     * Start the database synchronization with a new neighbour, sending a
+     *  DBD packet for each area shared with it
+     * @param name  neighbour address
+     */
+    public void start_db_exchange(char name) {
+        Neighbour pt= neig.locate_neig(name);
+        if ((pt == null) || (rprocesses == null)) {
+            return;
+        }
+        for (RoutingProcess rp : rprocesses.values()) {
+            if (pt.in_area(rp.area)) {
+                rp.send_DBD(pt, DBD_INIT);
+            }
+        }
+    }
+
+    /**
+     * Unmarshall a DBD packet (database description) and process it
+     * @param h         packet header (code, sender and datagram)
+     * @param pc        packet codec, positioned after the sender
+     * @return true if packet was handled successfully, false if error
+     */
+    public boolean process_DBD(PacketHeader h, PacketCodec pc) {
+        char sender= h.sender;
+        try {
+            char area= pc.get_char();
+            byte flags= pc.get_byte();
+            int n= pc.get_int();
+            Log("PKT_DBD("+sender+'('+area+"),flags="+flags+",n="+n+")\n");
+            if ((n<0) || (n>Router.N_ADDR)) {
+                Log("\nInvalid summary list length '"+n+"'\n");
+                return false;
+            }
+            ArrayList<RouterInfo> list= new ArrayList<>(n);
+            for (int i= 0; i<n; i++) {
+                RouterInfo ri= new RouterInfo(win, pc.get_char(), area, 
+                        pc.get_int(), 0, null);
+                ri.fingerprint= pc.get_long();
+                list.add(ri);
+            }
+            Neighbour pt= neig.locate_neig(sender);
+            RoutingProcess rp= get_Routing_process(area);
+            if ((pt == null) || (rp == null) || !pt.in_area(area)) {
+                Log2("process_DBD ignored PKT_DBD("+sender+'('+area+"))");
+                return true;   // Ignored packet
+            }
+            rp.process_DBD(pt, flags, list);
+            return true;
+        } catch (IOException e) {
+            Log("\nERROR - Packet too short\n");
+            return false;
+        }
+    }
+
+    /**
+     * Unmarshall a LSR packet (link state request) and process it
+     * @param h         packet header (code, sender and datagram)
+     * @param pc        packet codec, positioned after the sender
+     * @return true if packet was handled successfully, false if error
+     */
+    public boolean process_LSR(PacketHeader h, PacketCodec pc) {
+        char sender= h.sender;
+        try {
+            char area= pc.get_char();
+            int n= pc.get_int();
+            Log("PKT_LSR("+sender+'('+area+"),n="+n+")\n");
+            if ((n<0) || (n>Router.N_ADDR)) {
+                Log("\nInvalid request list length '"+n+"'\n");
+                return false;
+            }
+            char[] origins= new char[n];
+            for (int i= 0; i<n; i++) {
+                origins[i]= pc.get_char();
+            }
+            Neighbour pt= neig.locate_neig(sender);
+            RoutingProcess rp= get_Routing_process(area);
+            if ((pt == null) || (rp == null) || !pt.in_area(area)) {
+                Log2("process_LSR ignored PKT_LSR("+sender+'('+area+"))");
+                return true;   // Ignored packet
+            }
+            rp.process_LSR(pt, origins);
+            return true;
+        } catch (IOException e) {
+            Log("\nERROR - Packet too short\n");
+            return false;
+        }
+    }
+
     /**
      * Recalculate Routing table
      * @return true if the Routing table was modified, false otherwise
      */
-    public synchronized boolean update_global_routing_table() {
-        Log("routing.update_global_routing_table does not support multiple areas yet\n");
+    public boolean update_global_routing_table() {
         if (rprocesses == null) {
             Log("Internal error in update_routing_table: null route vector\n");
             return false;
         }
-        
-        // For comparizon purposes
-        RoutingTable old= main_rtab;
-                        
-        RoutingProcess rp= rprocesses.get(areas.charAt(0));
-        if (rp != null) {
-            // Run dijkstra for all areas except '0'
-            rp.run_dijkstra();
-            win.Dijkstra_cnt++;     
-            main_rtab= rp.get_routing_table();
-        } else {
+        if (!rprocesses.containsKey(areas.charAt(0))) {
             Log("Internal error in update_global_routing_table: null rp0\n");
             return false;
         }
-        
-        // This function is incomplete for a multi-area routing LS protocol
-        // You have to guarantee that every destination address can be reached
-        // and is present in the routing table
-        // ...
+        HashMap<Character, Integer> req= new HashMap<>();
+        for (int i= 0; i<areas.length(); i++) {
+            req.put(areas.charAt(i), SPF_ONLY);
+        }
+        return run_spf(req);
+    }
 
+    /**
+     * Run the SPF of a set of areas - concurrently if there is a pool - and
+     *  publish the global routing table. The tables of the other areas are
+     *  merged first; the tables calculated are merged as the calculations
+     *  finish. If the calculation of an area fails its previous table is
+     *  kept. The ROUTE packets are sent after all the calculations.
+     * @param req  mode of each area to calculate (SPF_ONLY, SPF_SEND or 
+     *              SPF_SEND_ALWAYS)
+     * @return true if the Routing table was modified, false otherwise
+     */
+    private synchronized boolean run_spf(Map<Character, Integer> req) {
+        if (rprocesses == null) {
+            return false;
+        }
+        RoutingTable rt= new RoutingTable();
+        for (RoutingProcess rp : rprocesses.values()) {
+            if (!req.containsKey(rp.area)) {
+                rt.merge_area_table(rp.get_routing_table(), areas);
+            }
+        }
+        if ((spf_pool != null) && (req.size() > 1)) {
+            CompletionService<Boolean> cs= new ExecutorCompletionService<>(spf_pool);
+            HashMap<Future<Boolean>, RoutingProcess> running= new HashMap<>();
+            for (char a : req.keySet()) {
+                final RoutingProcess rp= rprocesses.get(a);
+                running.put(cs.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return rp.run_dijkstra();
+                    }
+                }), rp);
+            }
+            for (int n= running.size(); n>0; n--) {
+                Future<Boolean> f;
+                try {
+                    f= cs.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;   // Stopping
+                }
+                RoutingProcess rp= running.get(f);
+                try {
+                    f.get();
+                    rp.count_spf();
+                } catch (InterruptedException | ExecutionException e) {
+                    Log("SPF failed in area "+rp.area+": "+e+" - previous table kept\n");
+                }
+                rt.merge_area_table(rp.get_routing_table(), areas);
+            }
+        } else {
+            for (char a : req.keySet()) {
+                RoutingProcess rp= rprocesses.get(a);
+                try {
+                    rp.run_dijkstra();
+                    rp.count_spf();
+                } catch (RuntimeException e) {
+                    Log("SPF failed in area "+rp.area+": "+e+" - previous table kept\n");
+                }
+                rt.merge_area_table(rp.get_routing_table(), areas);
+            }
+        }
+        for (int i= 0; i<areas.length(); i++) {
+            Integer mode= req.get(areas.charAt(i));
+            if ((mode != null) && (mode != SPF_ONLY)) {
+                rprocesses.get(areas.charAt(i)).send_local_ROUTE(mode == SPF_SEND_ALWAYS);
+            }
+        }
+        RoutingTableDiff diff= publish(rt);
+        
         // To log a table contents
         // main_rtab.Log_routing_table(this);
         
         // Echo Routing table 
-        update_routing_window();
-        return true;
-
+        if (!diff.is_empty()) {
+            update_routing_window();
+        }
+        return !diff.is_empty();
     }
         
     /**
-     * Display the Routing table in the GUI
+     * Publish a new global routing table snapshot. The table is frozen and
+     *  replaces the previous one atomically, so the forwarding path never
+     *  blocks nor sees a partially built table. Nothing is done if the
+     *  table did not change; the forwarding table is only rebuilt if the
+     *  next hops changed.
+     * @param rt  routing table, not shared with any other object
+     * @return the differences from the previous snapshot
+     */
+    private synchronized RoutingTableDiff publish(RoutingTable rt) {
+        RoutingTable old= main_rtab.get();
+        RoutingTableDiff diff= rt.diff(old);
+        if ((old != null) && diff.is_empty()) {
+            return diff;
+        }
+        rt.freeze((old == null) ? 1 : old.version()+1);
+        main_rtab.set(rt);
+        if (snapshot != null) {
+            snapshot.store_table(rt, (old == null) ? null : diff);
+        }
+        if ((old == null) || diff.forwarding_changed()) {
+            fib.set(new ForwardingTable(rt, neig));
+        }
+        Log("Routing table "+rt.version()+": "+diff+"\n");
+        return diff;
+    }
+
+    /**
+     * Return the current forwarding table, rebuilding it if the neighbour
+     *  list changed since it was built
+     * @return the forwarding table
+     */
+    private ForwardingTable forwarding_table() {
+        ForwardingTable f= fib.get();
+        if ((f == null) || (f.neig_version() != neig.version())) {
+            ForwardingTable nf= new ForwardingTable(main_rtab.get(), neig);
+            // Only replaces the table read; a newer one may have been published
+            fib.compareAndSet(f, nf);
+            f= nf;
+        }
+        return f;
+    }
+
+    /**
+     * Return the current global routing table snapshot
+     * @return read-only routing table, or null if none was calculated
+     */
+    public RoutingTable get_routing_table() {
+        return main_rtab.get();
+    }
+
+    /**
+     * Display the Routing table in the GUI; the current snapshot is shown 
+     *  by the Swing event thread
      */
     public void update_routing_window() {
         Log2("update_routing_window\n");
-        Iterator<RouteEntry> iter= null;
-        if (main_rtab!=null) {
-            iter= main_rtab.iterator();
-        }
-
-        // update window
-        for (int i= 0; i<tableObj.getRowCount(); i++) {
-            if ((main_rtab != null) && iter.hasNext()) {
-                RouteEntry next= iter.next();
-                tableObj.setValueAt(""+next.dest,i,0);
-                tableObj.setValueAt(""+next.next_hop,i,1);
-                tableObj.setValueAt(""+next.next_hop_area,i,2);
-                tableObj.setValueAt(""+next.dist,i,3);
-            } else {
-                tableObj.setValueAt("",i,0);
-                tableObj.setValueAt("",i,1);
-                tableObj.setValueAt("",i,2);
-                tableObj.setValueAt("",i,3);
-            }
+        final RoutingTable rt= main_rtab.get();
+        final JTable table= tableObj;
+        if (table == null) {
+            return;
         }
+        Router.run_in_gui(new Runnable() {
+            @Override
+            public void run() {
+                Iterator<RouteEntry> iter= null;
+                if (rt!=null) {
+                    iter= rt.iterator();
+                }
+
+                // update window
+                for (int i= 0; i<table.getRowCount(); i++) {
+                    if ((rt != null) && iter.hasNext()) {
+                        RouteEntry next= iter.next();
+                        table.setValueAt(""+next.dest,i,0);
+                        table.setValueAt(next.hops_string(),i,1);
+                        table.setValueAt(""+next.next_hop_area,i,2);
+                        table.setValueAt(""+next.dist,i,3);
+                    } else {
+                        table.setValueAt("",i,0);
+                        table.setValueAt("",i,1);
+                        table.setValueAt("",i,2);
+                        table.setValueAt("",i,3);
+                    }
+                }
+            }
+        });
     }
         
     
@@ -480,24 +1182,38 @@ public class Routing implements Log {
      * @return the address of the next hop, or ' ' if not found.
      */
     public char next_Hop(char dest) {
-        if (main_rtab == null) {
-            return ' ';
-        }
-        return main_rtab.nextHop(dest);
+        return forwarding_table().next_hop(Router.addr_index(dest), 0);
+    }
+
+    /**
+     * Calculate the flow hash of a DATA packet, used to select one of the
+     * equal cost paths. Only the flow identity is hashed, so all the packets
+     * of a flow follow the same path and are not reordered.
+     * @param sender    sender address
+     * @param dest      destination address
+     * @return hash value
+     */
+    public int flow_hash(char sender, char dest) {
+        int h= sender * 31 + dest;
+        h^= h >>> 16;
+        h*= 0x85ebca6b;
+        h^= h >>> 13;
+        return h;
     }
 
     /**
      * send a DATA packet using the Routing table and the neighbor information
-     * @param dest destination address
-     * @param dp   datagram packet object
+     * @param sender sender address
+     * @param dest   destination address
+     * @param dp     datagram packet object
      */
-    public void send_data_packet(char dest, DatagramPacket dp) {
+    public void send_data_packet(char sender, char dest, DatagramPacket dp) {
         if (win.is_local_name(dest)) {
             // Send to local node
             try {
                 dp.setAddress(InetAddress.getLocalHost());
-                dp.setPort(ds.getLocalPort());
-                ds.send(dp);
+                dp.setPort(loop.local_port());
+                loop.send(dp);
                 win.DATA_snt++;
             }
             catch (UnknownHostException e) {
@@ -508,56 +1224,68 @@ public class Routing implements Log {
             }
             
         } else { // Send to Neighbour Router
-            char prox= next_Hop(dest);
-            if (prox == ' ') {
-                Log("No route to destination: packet discarded\n");
-            } else {
-                // Lookup Neighbour
-                Neighbour pt= neig.locate_neig(prox);
-                if (pt == null) {
-                    Log("Invalid neighbour ("+prox+
-                        ") in routing table: packet discarder\n");
-                    return;
-                }
-                try {
-                    pt.send_packet(ds, dp);
-                    win.DATA_snt++;
-                }
-                catch(IOException e) {
-                    Log("Error sending DATA packet: "+e+"\n");
-                }
-            }            
+            Neighbour pt= next_neighbour(sender, dest);
+            if ((pt != null) && send_to_neighbour(pt, dp)) {
+                win.DATA_snt++;
+            }
         }
     }
 
+    /**
+     * Select the Neighbour used to send a DATA packet to a destination
+     * @param sender sender address
+     * @param dest   destination address
+     * @return the next hop Neighbour, or null if there is no route
+     */
+    private Neighbour next_neighbour(char sender, char dest) {
+        // Both lookups use the same forwarding table
+        ForwardingTable f= forwarding_table();
+        int d= Router.addr_index(dest);
+        int hash= flow_hash(sender, dest);
+        char prox= f.next_hop(d, hash);
+        if (prox == ' ') {
+            Log("No route to destination: packet discarded\n");
+            return null;
+        }
+        // Cached Neighbour; another equal cost next hop or the 
+        // loop-free alternate if prox is no longer a neighbour
+        Neighbour pt= f.neighbour(d, hash);
+        if (pt == null) {
+            Log("Invalid neighbour ("+prox+
+                ") in routing table: packet discarder\n");
+            return null;
+        }
+        if (pt.Name() != prox) {
+            Log("Next hop "+prox+" failed: using alternate "+pt.Name()+"\n");
+        }
+        return pt;
+    }
+
     /** Prepare a data packet; adds local_name to path
      * @param sender    sender address
      * @param seq       sequence number
      * @param dest      destination
      * @param msg       message string
      * @param path      path
-     * @return  Datagram packet object 
+     * @return  Datagram packet object, encoded in the PacketCodec of the thread 
      */
     public DatagramPacket make_data_packet(char sender, int seq, char dest, 
             String msg, String path) {
-        ByteArrayOutputStream os= new ByteArrayOutputStream();
-        DataOutputStream dos= new DataOutputStream(os);
         try {
-            dos.writeByte(Router.PKT_DATA);
-            dos.writeChar(sender);
-            dos.writeInt(seq);
-            dos.writeChar(dest);
-            dos.writeShort(msg.length());
-            dos.writeBytes(msg);
-            dos.writeByte(path.length()+1);
-            dos.writeBytes(path+win.local_name());
+            PacketCodec pc= PacketCodec.encoder().begin(Router.PKT_DATA, sender);
+            pc.put_int(seq);
+            pc.put_char(dest);
+            pc.put_short(msg.length());
+            pc.put_ascii(msg);
+            pc.put_byte(path.length()+1);
+            pc.put_ascii(path);
+            pc.put_byte(win.local_name());
+            return pc.packet();
         }
         catch (IOException e) {
             Log("Error encoding data packet: "+e+"\n");
             return null;
         }
-        byte [] buffer = os.toByteArray();
-        return new DatagramPacket(buffer, buffer.length);
     }
     
     /** Prepare and send a data packet; adds local_name to path 
@@ -579,19 +1307,59 @@ public class Routing implements Log {
         }
         DatagramPacket dp= make_data_packet(sender, seq, dest, msg, path);
         if (dp != null) {
-            send_data_packet(dest, dp);
+            send_data_packet(sender, dest, dp);
         }
     }
 
-    /** unmarshal DATA packet e process it
+    /**
+     * Forward a transit DATA packet in the buffer where it was received:
+     *  validate the path, append the local name to it and send the same 
+     *  packet to the next hop
      * @param sender    sender's address
-     * @param dp        DatagramPacket object
-     * @param ip        IP address
-     * @param dis       DataInputStream object
+     * @param dest      destination
+     * @param dp        DatagramPacket received
+     * @param path_off  offset of the path length field in the packet
+     * @return true if the packet was forwarded, false if it was discarded
+     */
+    private boolean forward_DATA(char sender, char dest, 
+            DatagramPacket dp, int path_off) {
+        byte [] buf= dp.getData();
+        int off= dp.getOffset();
+        if (path_off >= dp.getLength()) {
+            Log(": Packet too short\n");
+            return false;
+        }
+        int len_path= buf[off+path_off];
+        if ((len_path<0) || (path_off+1+len_path > dp.getLength())) {
+            Log(": Invalid path length\n");
+            return false;
+        }
+        if ((len_path >= Router.MAX_PATH_LEN) || (off+path_off+2+len_path > buf.length)) {
+            Log(": path length too long\n");
+            return false;
+        }
+        Log(" transit\n");
+        // Single next hop lookup for the transit packet
+        Neighbour pt= next_neighbour(sender, dest);
+        if (pt == null) {
+            return false;
+        }
+        buf[off+path_off]= (byte)(len_path+1);
+        buf[off+path_off+1+len_path]= (byte)local_name;
+        dp.setLength(path_off+2+len_path);
+        if (send_to_neighbour(pt, dp)) {
+            win.DATA_snt++;
+        }
+        return true;
+    }
+
+    /** unmarshal DATA packet e process it
+     * @param h         packet header (code, sender and datagram)
+     * @param pc        packet codec, positioned after the sender
      * @return  true if read was successful 
      */
-    public boolean process_DATA(char sender, DatagramPacket dp, 
-            String ip, DataInputStream dis) {
+    public boolean process_DATA(PacketHeader h, PacketCodec pc) {
+        char sender= h.sender;
         try {
             Log("PKT_DATA");
             if (!Character.isUpperCase(sender)) {
@@ -599,53 +1367,42 @@ public class Routing implements Log {
                 return false;
             }
             // Read seq
-            int seq= dis.readInt();
+            int seq= pc.get_int();
             // Read Dest
-            char dest= dis.readChar();
+            char dest= pc.get_char();
             // Read message
-            int len_msg= dis.readShort();
+            int len_msg= pc.get_short();
             if (len_msg>255) {
                 Log(": message too long ("+len_msg+">255)\n");
                 return false;
             }
-            byte [] sbuf1= new byte [len_msg];
-            int n= dis.read(sbuf1,0,len_msg);
-            if (n != len_msg) {
+            if ((len_msg<0) || (pc.remaining()<len_msg)) {
                 Log(": Invalid message length\n");
                 return false;
             }
-            String msg= new String(sbuf1,0,n);
+            if (dest != local_name) {
+                // Transit packet - forwarded without decoding the strings
+                return forward_DATA(sender, dest, h.dp, DATA_HEADER_LEN+len_msg);
+            }
+            pc.get_bytes(sbuf, len_msg);
+            String msg= new String(sbuf,0,len_msg);
             // Read path
-            int len_path= dis.readByte();
+            int len_path= pc.get_byte();
             if (len_path>Router.MAX_PATH_LEN) {
                 Log(": path length too long ("+len_msg+">"+Router.MAX_PATH_LEN+
                     ")\n");
                 return false;
             }
-            byte [] sbuf2= new byte [len_path];
-            n= dis.read(sbuf2,0,len_path);
-            if (n != len_path) {
+            if ((len_path<0) || (pc.remaining()<len_path)) {
                 Log(": Invalid path length\n");
                 return false;
             }
-            String path= new String(sbuf2,0,n);
+            pc.get_bytes(sbuf, len_path);
+            String path= new String(sbuf,0,len_path);
             Log(" ("+sender+"-"+dest+"-"+seq+"):'"+msg+"':Path='"+path+win.local_name()+"'\n");
-            // Test Routing table
-            if (win.is_local_name(dest)) {
-                // Arrived at destination
-                Log("DATA packet reached destination\n");
-                return true;
-            } else {
-                char prox= next_Hop(dest);
-                if (prox == ' ') {
-                    Log("No route to destination: packet discarded\n");
-                    return false;
-                } else {
-                    // Send packet to next hop
-                    send_data_packet(sender, seq, dest, msg, path);
-                    return true;
-                }
-            }
+            // Arrived at destination; transit packets were forwarded above
+            Log("DATA packet reached destination\n");
+            return true;
         }
         catch (IOException e) {
             Log(" Error decoding data packet: " + e + "\n");
@@ -686,10 +1443,26 @@ public class Routing implements Log {
      *              Variables
      */
 
-    /** Routing table object */
-    public RoutingTable main_rtab;
+    /** Current global routing table snapshot (read-only, copy-on-write) */
+    private final AtomicReference<RoutingTable> main_rtab;
+    /** Forwarding table built from main_rtab */
+    private final AtomicReference<ForwardingTable> fib;
     /** Array of Routing process objects */
     private final HashMap<Character, RoutingProcess> rprocesses;
+    /** Thread pool used to run the SPF of the areas concurrently */
+    private final ExecutorService spf_pool;
+    /** Areas whose calculation was requested, with the request mode */
+    private final HashMap<Character, Integer> spf_pending= new HashMap<>();
+    /** Timer that runs the calculations requested */
+    private final LoopTimer spf_timer;
+    /** Memory-mapped LSDB snapshot, or null if disabled */
+    private final LsdbSnapshot snapshot;
+    /** Reliable unicast flooding of ROUTE packets, or null if multicast is used */
+    private final ReliableFlooding flooding;
+    /** Last ROUTE header accepted from each origin, to drop copies */
+    private final DuplicateCache dup_cache= new DuplicateCache();
+    /** Buffer used to decode the strings of DATA packets */
+    private final byte[] sbuf= new byte[PacketCodec.MAX_PACKET_LEN];
     
     /** Local address name */
     private char local_name;
@@ -701,11 +1474,16 @@ public class Routing implements Log {
     private final int local_TTL;
     /** Reference to main window with GUI */
     private Router win;
-    /** Unicast datagram socket used to send packets */
-    private DatagramSocket ds;
+    /** Event loop with the sockets used to send packets */
+    private EventLoop loop;
     /** Reference to graphical Routing table object */
     private JTable tableObj;
 
-    // A multicast socket is used initialy to broadcast the ROUTE packets!
-    public MulticastDaemon mdaemon;
+    // A multicast group is used initialy to broadcast the ROUTE packets!
+    /** Multicast IP address */
+    private final String multi_addr;
+    /** Multicast port number */
+    private final int multi_port;
+    /** Handlers of the packets received from the multicast group */
+    private final PacketDispatcher mdispatcher;
 }
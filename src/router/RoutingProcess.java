@@ -14,8 +14,10 @@ package router;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.IOException;
 import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -25,8 +27,12 @@ import java.util.Iterator;
  * Stores Routing information for each area
  */
 public class RoutingProcess {    
-    /** Routing Table */
-    private RoutingTable rtab;
+    /** Routing Table; replaced (never modified) after each calculation */
+    private volatile RoutingTable rtab;
+    /** Shortest path first engine */
+    private final SpfEngine spf;
+    /** Topology graph of the area, built from the local vector and map */
+    private final LinkStateGraph graph;
 
     /** area of the Routing process */
     public char area;
@@ -36,8 +42,21 @@ public class RoutingProcess {
     public Date lastSending;
     /** Sequence number of the next ROUTE packet to be sent */
     private int route_seq;
+    /** Local vector of the last ROUTE packet sent to the area, base of the
+     *  next ROUTE delta; null if none was sent */
+    private Entry[] sent_vec;
+    /** Sequence number of the last ROUTE packet sent to the area */
+    private int sent_seq;
+    /** Number of ROUTE delta packets sent since the last complete ROUTE */
+    private int deltas_sent;
     /** Timer object that sends ROUTE packets */
-    private javax.swing.Timer timer_announce;
+    private LoopTimer timer_announce;
+    /** Throttles the calculations and ROUTE sending after network changes */
+    private final SpfScheduler scheduler;
+    /** Coalesces the ROUTE packets received, or null if disabled */
+    private final RouteBatcher batcher;
+    /** Removes the routers whose ROUTE information expired */
+    private final LsdbAging aging;
 
     /** Routing object that coordinates multiple areas */
     private final Routing route;
@@ -47,8 +66,6 @@ public class RoutingProcess {
     private final NeighbourList neig;
     /** ROUTE packet's transmission period (s) */
     private final int period;
-    /** Minimum interval between consecutive ROUTE packets (ms) */
-    private final int min_interval;
 
     /**
      * Constructor; receives the configuration parameters from the main Routing process
@@ -57,7 +74,8 @@ public class RoutingProcess {
      * @param neig          neighbor list
      * @param area          local area
      * @param period        ROUTE period (s)
-     * @param min_interval  Minimum interval between ROUTE packets (ms)
+     * @param min_interval  Minimum hold time between route calculations 
+     *                      and ROUTE packets after changes (ms)
      */
     public RoutingProcess(Routing route, Router win, NeighbourList neig, char area, int period /*s*/, int min_interval /*ms*/) {
         this.area = area;
@@ -67,54 +85,299 @@ public class RoutingProcess {
         this.neig = neig;
         this.lastSending = null;
         this.rtab = new RoutingTable();
+        this.spf = new SpfEngine(route.LFA);
+        this.graph = new LinkStateGraph();
         this.timer_announce = null;
         this.route_seq = 1;
         this.period = period;
-        this.min_interval = min_interval;
+        this.scheduler = new SpfScheduler(this, route.SPF_START_DELAY, 
+                min_interval, route.SPF_MAX_HOLD);
+        this.batcher = (route.ROUTE_BATCH_WINDOW > 0) ? 
+                new RouteBatcher(this, route.ROUTE_BATCH_WINDOW) : null;
+        this.aging = new LsdbAging(this);
     }
 
     /**
-     * Handles the reception of a ROUTE packet
+     * Return the event loop that runs the timers of the area
+     * @return event loop
+     */
+    public EventLoop loop() {
+        return route.loop();
+    }
+
+    /**
+     * Handles the reception of a ROUTE packet. If batching is enabled the
+     *  packet is stored in the current window and applied when it closes.
      * @param sender packet sender
      * @param seq    sequence number
      * @param TTL    Time To Live
      * @param data   Entry vector received
-     * @return true if the vector changed, false otherwise
+     * @return true if the vector changed (or was queued), false otherwise
      */
     public boolean process_ROUTE(char sender, int seq, int TTL, Entry[] data) {
+        if (batcher != null) {
+            return batcher.add(new RouterInfo(win, sender, area, seq, TTL, data));
+        }
+        synchronized (this) {
+            boolean changed = store_ROUTE(sender, seq, TTL, data);
+            if (changed && win.sendIfChanges()) {
+                network_changed(false);
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Apply a batch of ROUTE packets to the database in one step, with
+     *  at most one network change
+     * @param batch     newest ROUTE information received from each origin
+     * @param received  number of ROUTE packets coalesced into the batch
+     * @return true if any vector changed, false otherwise
+     */
+    public synchronized boolean process_ROUTE_batch(Collection<RouterInfo> batch, 
+            int received) {
         boolean changed = false;
-        if (map == null) {
-            return false;
+        for (RouterInfo ri : batch) {
+            changed |= store_ROUTE(ri.name, ri.seq, ri.TTL, ri.vec);
         }
+        win.Log("ROUTE batch(" + area + "): " + received + " packet(s), " 
+                + batch.size() + " origin(s)\n");
+        if (changed && win.sendIfChanges()) {
+            network_changed(false);
+        }
+        return changed;
+    }
 
-        win.Log("RoutingProcess.process_ROUTE not yet implemented\n");
-        RouterInfo ri = new RouterInfo(win, sender, area, seq, TTL, data);
-        // Validate stuff, check TTL
-        
-        /*if (data_validated){
-            map.put(sender, ri);
-        }*/
-        if (ri.test_diff_vec(data) && win.sendIfChanges()){
+    /**
+     * Handle the expiration of a batch of routers - remove them from the 
+     *  database and trigger a single recalculation
+     * @param expired  routers removed from the aging queue
+     */
+    public synchronized void routers_expired(Collection<RouterInfo> expired) {
+        int removed = 0;
+        for (RouterInfo ri : expired) {
+            // Skip routers refreshed or replaced after leaving the queue
+            if ((map.get(ri.name) != ri) || ri.vec_valid()) {
+                continue;
+            }
+            map.remove(ri.name);
+            route.router_expired(area, ri.name);
+            if (Router.addr_index(ri.name) >= 0) {
+                graph.clear_row(Router.addr_index(ri.name));
+            }
+            removed++;
+        }
+        if (removed > 0) {
+            win.Log("ROUTE expired(" + area + "): " + removed + " router(s) removed\n");
             network_changed(false);
+        }
     }
-        
-        // The code must create a new RouterInfo object ...
-        //    RouterInfo pt = new RouterInfo(win, sender, area, seq, TTL, data);
-        // ... and place it in the corresponding list ...
-        //    map.put(sender, pt);    // Stores the information in the list
-        
-        // Note that some tests must be performed before replacing existing 
-        // information with the new one (is it valid? is it different? ...)
-        //   ...
-        
-        // The function returns true if the vector contents changed ...
-        // You can use test_diff_vec from class RouterInfo to compare vectors
-        
-        // It should also call network_chnged if sendifchanges is active:
-        // if (changed && win.sendIfChanges()) {
-        //    network_changed(false);
-        // } 
-        
+
+    /**
+     * Remove the ROUTE information of a router whose adjacency was lost or
+     *  re-established. It may have restarted its sequence numbers, so the
+     *  next vector it sends is accepted whatever its sequence number.
+     * @param origin  router address
+     * @return true if the router was in the database, false otherwise
+     */
+    public synchronized boolean invalidate_router(char origin) {
+        if (batcher != null) {
+            batcher.discard(origin);
+        }
+        route.router_expired(area, origin);
+        RouterInfo ri = map.remove(origin);
+        if (ri == null) {
+            return false;
+        }
+        if (Router.addr_index(origin) >= 0) {
+            graph.clear_row(Router.addr_index(origin));
+        }
+        return true;
+    }
+
+    /**
+     * Restore the ROUTE information loaded from the LSDB snapshot, without
+     *  triggering a recalculation
+     * @param list      ROUTE information of the area
+     * @param last_seq  last ROUTE sequence number sent before the restart
+     */
+    public synchronized void restore(Collection<RouterInfo> list, int last_seq) {
+        for (RouterInfo ri : list) {
+            store_ROUTE(ri.name, ri.seq, ri.TTL, ri.vec);
+        }
+        if (last_seq >= route_seq) {
+            // The other routers still hold the vectors sent before the restart
+            route_seq = last_seq + 1;
+        }
+    }
+
+    /**
+     * Return the sequence number of the next ROUTE packet, recording it in
+     *  the LSDB snapshot
+     * @return sequence number
+     */
+    private synchronized int next_route_seq() {
+        int seq = route_seq++;
+        route.snapshot_route_seq(area, seq);
+        return seq;
+    }
+
+    /**
+     * Send a DBD packet with the summary of the local database to a neighbour
+     * @param pt     neighbour
+     * @param flags  DBD flags (Routing.DBD_INIT to request a DBD in reply)
+     * @return true if sent, false otherwise
+     */
+    public boolean send_DBD(Neighbour pt, byte flags) {
+        ArrayList<RouterInfo> list = new ArrayList<>();
+        synchronized (this) {
+            for (RouterInfo ri : map.values()) {
+                if (ri.vec_valid()) {
+                    list.add(ri);
+                }
+            }
+        }
+        Entry[] lvec = route.local_vec(area);
+        if (lvec != null) {
+            // The local vector is requested as any other
+            list.add(new RouterInfo(win, route.local_name(), area, 
+                    route_seq - 1, 0, lvec));
+        }
+        if (!route.send_to_neighbour(pt, route.make_DBD_packet(area, flags, list))) {
+            return false;
+        }
+        win.DBD_snt++;
+        return true;
+    }
+
+    /**
+     * Test if a ROUTE packet is newer than the information stored, or
+     *  waiting in the current batch
+     * @param origin  origin router
+     * @param seq     sequence number
+     * @return true if newer, false if it is a duplicate or older
+     */
+    public synchronized boolean is_newer(char origin, int seq) {
+        if ((batcher != null) && (seq <= batcher.pending_seq(origin))) {
+            return false;
+        }
+        RouterInfo pt = map.get(origin);
+        return (pt == null) || !pt.vec_valid() || (seq > pt.seq);
+    }
+
+    /**
+     * Handle a DBD packet - request the ROUTE information that is missing
+     *  or older than the one announced by the neighbour
+     * @param pt     neighbour that sent the DBD
+     * @param flags  DBD flags
+     * @param list   summaries received (name, seq and fingerprint)
+     */
+    public void process_DBD(Neighbour pt, byte flags, Collection<RouterInfo> list) {
+        ArrayList<Character> req = new ArrayList<>();
+        boolean resend = false;
+        synchronized (this) {
+            for (RouterInfo s : list) {
+                if (s.name == route.local_name()) {
+                    if (s.seq >= route_seq) {
+                        // Vector sent before a restart - continue after it
+                        route_seq = s.seq + 1;
+                        resend = true;
+                    }
+                    continue;
+                }
+                RouterInfo ri = map.get(s.name);
+                if ((ri == null) || !ri.vec_valid() || (s.seq > ri.seq)) {
+                    req.add(s.name);
+                }
+            }
+        }
+        if (!req.isEmpty() && route.send_to_neighbour(pt, route.make_LSR_packet(area, req))) {
+            win.LSR_snt++;
+        }
+        if (resend) {
+            route.request_spf(area, Routing.SPF_SEND_ALWAYS);
+        }
+        if ((flags & Routing.DBD_INIT) != 0) {
+            send_DBD(pt, (byte) 0);
+        }
+    }
+
+    /**
+     * Handle a LSR packet - send the ROUTE information requested directly
+     *  to the neighbour, with the remaining TTL
+     * @param pt       neighbour that sent the LSR
+     * @param origins  origin routers requested
+     */
+    public void process_LSR(Neighbour pt, char[] origins) {
+        for (char o : origins) {
+            DatagramPacket dp = null;
+            if (o == route.local_name()) {
+                synchronized (this) {
+                    if (sent_vec != null) {
+                        // Last vector sent - the base of the next delta
+                        dp = route.make_ROUTE_packet(o, area, sent_seq, sent_vec);
+                    }
+                }
+                Entry[] lvec = (dp == null) ? route.local_vec(area) : null;
+                if (lvec != null) {
+                    dp = route.make_ROUTE_packet(o, area, next_route_seq(), lvec);
+                }
+            } else {
+                synchronized (this) {
+                    RouterInfo ri = map.get(o);
+                    if ((ri != null) && ri.vec_valid()) {
+                        int ttl = (int) Math.max(1, (ri.expires - Router.now_ms()) / 1000);
+                        dp = route.make_ROUTE_packet(o, area, ri.seq, ttl, ri.vec);
+                    }
+                }
+            }
+            if ((dp != null) && route.send_to_neighbour(pt, dp)) {
+                win.ROUTE_snt++;
+            }
+        }
+    }
+
+    /**
+     * Store the ROUTE information received in the map and in the graph
+     * @param sender packet sender
+     * @param seq    sequence number
+     * @param TTL    Time To Live
+     * @param data   Entry vector received
+     * @return true if the vector changed, false otherwise
+     */
+    private boolean store_ROUTE(char sender, int seq, int TTL, Entry[] data) {
+        boolean changed;
+        if (map == null) {
+            return false;
+        }
+
+        RouterInfo pt = map.get(sender);
+        if (pt == null) {
+            pt = new RouterInfo(win, sender, area, seq, TTL, null);
+            if (!pt.test_vec_contents(data)) {
+                return false;
+            }
+            pt.update_vec(data, seq, TTL);
+            map.put(sender, pt);    // Stores the information in the list
+            changed = true;
+        } else {
+            if (pt.vec_valid() && (seq <= pt.seq)) {
+                // Old or duplicated ROUTE packet
+                return false;
+            }
+            if (!pt.test_vec_contents(data)) {
+                return false;
+            }
+            changed = !pt.vec_valid() || pt.test_diff_vec(data);
+            // Keep the previous vector object if the contents did not change,
+            // so the incremental SPF does not see it as modified
+            pt.update_vec(changed ? data : pt.vec, seq, TTL);
+        }
+        aging.schedule(pt);
+        route.snapshot_router(pt);
+        if (changed && (Router.addr_index(sender) >= 0)) {
+            graph.set_row(Router.addr_index(sender), data);
+        }
         return changed;
     }
 
@@ -131,29 +394,66 @@ public class RoutingProcess {
      * Run the Dijkstra algorithm, setting the Routing table in main_rtab variable
      * @return true if Routing tables changed, false otherwise
      */
-    public boolean run_dijkstra() {
-        char nextN;
-
+    public synchronized boolean run_dijkstra() {
         RoutingTable old= rtab;
-        rtab= new RoutingTable();
 
         // Load local node and neighbors
-        rtab = route.local_route_table(area);
+        Entry[] lvec = route.local_vec(area);
+        if (lvec == null) {
+            return false;
+        }
+
+        sync_graph(lvec);
+
+        // Run Dijkstra algorithm over the bucket queue engine
+        if (route.INCREMENTAL_SPF) {
+            rtab = spf.run_incremental(route.local_name(), area, graph, old);
+        } else {
+            rtab = spf.run(route.local_name(), area, graph);
+        }
+        if (spf.last_mode() == SpfEngine.SPF_NONE) {
+            return false;
+        }
+        if (spf.last_mode() == SpfEngine.SPF_PARTIAL) {
+            // Distances patched in place - the tree did not change
+            return spf.last_patched() > 0;
+        }
 
-        // Run Dijkstra algorithm        
-        win.Log("RoutingProcess.run_dijkstra not implemented yet\n");
-        
-        // Place here the code to implement the Dijkstra algorithm directly over
-        //   the rtab object
-        
-        // Read carefully the pages 366-369 of Computer Networks 5th edition
-        // to understand how it is done
-        // Remember that there is a maximum distance allowed!
-        
         // Return true if Routing table changed
         return (old==null)|| ((rtab!=null) && !rtab.equal_RoutingTable(old));
     }
 
+    /**
+     * Count the last calculation in the statistics of the window; it is 
+     *  called by the thread that requested the calculation, after it ended,
+     *  as the calculations of the areas may run concurrently
+     */
+    public void count_spf() {
+        switch (spf.last_mode()) {
+            case SpfEngine.SPF_NONE:
+                break;
+            case SpfEngine.SPF_PARTIAL:
+                win.PRC_cnt++;
+                break;
+            default:
+                win.Dijkstra_cnt++;
+        }
+    }
+
+    /**
+     * Update the topology graph with the local vector, and remove the rows
+     *  of the routers whose vector expired
+     * @param lvec  local Entry vector
+     */
+    private void sync_graph(Entry[] lvec) {
+        graph.set_row(Router.addr_index(route.local_name()), lvec);
+        for (RouterInfo pt : map.values()) {
+            if (!pt.vec_valid() && (Router.addr_index(pt.name) >= 0)) {
+                graph.clear_row(Router.addr_index(pt.name));
+            }
+        }
+    }
+
     /**
      * Send a ROUTE packet with neighbours' information
      * @param send_if_equal Send if is equal to previous if true, drop it otherwise
@@ -168,17 +468,78 @@ public class RoutingProcess {
             return false;
         }
 
-        DatagramPacket dp = route.make_ROUTE_packet(route.local_name(), area, route_seq++, vec);
-        try {
-            route.mdaemon.send_packet(dp);
-            lastSending = new Date();
-            win.ROUTE_snt++;
-            win.ROUTE_loc++;
-            return true;
-        } catch (IOException e) {
-            win.Log("Error sending ROUTE: " + e + "\n");
+        int seq;
+        boolean delta;
+        DatagramPacket dp = null;
+        synchronized (this) {
+            if (!send_if_equal && Entry.equal_vec(vec, sent_vec)) {
+                win.Log("Local vector unchanged: ROUTE not sent\n");
+                return true;
+            }
+            seq = next_route_seq();
+            // Only the changes, except every ROUTE_FULL_REFRESH packets
+            if ((sent_vec != null) && (deltas_sent < route.ROUTE_FULL_REFRESH)) {
+                dp = route.make_ROUTE_delta_packet(route.local_name(), area, 
+                        seq, sent_seq, sent_vec, vec);
+            }
+            delta = (dp != null);
+            if (!delta) {
+                dp = route.make_ROUTE_packet(route.local_name(), area, seq, vec);
+            }
+            deltas_sent = delta ? deltas_sent + 1 : 0;
+            // If the packet is lost the receivers request the complete vector
+            sent_vec = vec;
+            sent_seq = seq;
+        }
+        if (!route.send_ROUTE(area, route.local_name(), seq, dp)) {
             return false;
         }
+        if (delta) {
+            win.ROUTE_delta++;
+        }
+        lastSending = new Date();
+        win.ROUTE_snt++;
+        win.ROUTE_loc++;
+        return true;
+    }
+
+    /**
+     * Rebuild the Entry vector of a ROUTE delta packet, applying the changes
+     *  to the vector with the base sequence number
+     * @param sender   origin router
+     * @param base     sequence number of the base vector
+     * @param changed  entries added or modified
+     * @param removed  destinations removed
+     * @return the new Entry vector, or null if the base vector is not stored
+     */
+    public synchronized Entry[] apply_ROUTE_delta(char sender, int base, 
+            Entry[] changed, char[] removed) {
+        // The newest vector may be waiting in the current batch
+        RouterInfo pt = (batcher != null) ? batcher.pending(sender) : null;
+        if (pt == null) {
+            pt = map.get(sender);
+            if ((pt != null) && !pt.vec_valid()) {
+                pt = null;
+            }
+        }
+        if ((pt == null) || (pt.vec == null) || (pt.seq != base)) {
+            return null;
+        }
+        ArrayList<Entry> vec = new ArrayList<>(pt.vec.length + changed.length);
+        for (Entry e : pt.vec) {
+            boolean keep = true;
+            for (char d : removed) {
+                keep &= (d != e.dest);
+            }
+            for (Entry c : changed) {
+                keep &= (c.dest != e.dest);
+            }
+            if (keep) {
+                vec.add(new Entry(e));
+            }
+        }
+        vec.addAll(Arrays.asList(changed));
+        return vec.toArray(new Entry[vec.size()]);
     }
 
 
@@ -186,13 +547,9 @@ public class RoutingProcess {
      * Handle timer event - update Routing table and send ROUTE
      */
     public void update_routing_table() {
-        run_dijkstra();
-        win.Dijkstra_cnt++;
-
-        send_local_ROUTE(true);
-        
-        // Signal Routing object that this area was calculated
-        route.area_tab_calculated(area, false);
+        // The Routing object calculates the area table, sends the ROUTE
+        // and merges the table into the global routing table
+        route.request_spf(area, Routing.SPF_SEND_ALWAYS);
     }
 
  
@@ -212,8 +569,8 @@ public class RoutingProcess {
             }
         // Cdigo executado quando o temporizador disparar
         };
-        timer_announce = new javax.swing.Timer(period, act);// Cria objeto timer
-        timer_announce.setDelay(period);
+        timer_announce = new LoopTimer(route.loop(), period * 1000, act);// Cria objeto timer
+        timer_announce.setDelay(period * 1000);
         timer_announce.start();
         System.out.println("Timer announce");
         
@@ -225,35 +582,35 @@ public class RoutingProcess {
      * neighbours
      */
     public void stop_announce_timer() {
-        win.Log("RoutingProcess.stop_announce_timer not implemented yet\n");
-        timer_announce.stop();
+        if (timer_announce != null) {
+            timer_announce.stop();
+        }
+        if (batcher != null) {
+            batcher.stop();
+        }
+        aging.stop();
+        scheduler.stop();
     }
 
+
     /**
-     * Tests if the minimum interval time has elapsed since last sending
-     * @return true if the time elapsed, false otherwise
+     * Handle area changes - schedule the update of the Routing table and 
+     *  the sending of the ROUTE packet. Bursts of changes are coalesced into
+     *  a single calculation by the SPF scheduler.
+     * @param send_ROUTE if true always send ROUTE packet
      */
-    public boolean test_time_since_last_update() {
-        return (lastSending == null)
-                || ((System.currentTimeMillis() - lastSending.getTime()) >= min_interval);
+    public void network_changed(boolean send_ROUTE) {
+        scheduler.schedule(send_ROUTE);
     }
 
-
     /**
-     * Handle area changes - update Routing table and send ROUTE
+     * Handle the SPF scheduler - update Routing table and send ROUTE
      * @param send_ROUTE if true always send ROUTE packet
+     * @param events     number of changes handled by this calculation
      */
-    public void network_changed(boolean send_ROUTE) {
-        win.Log("RoutingProcess.network_changed not implemented yet\n");
-        
-        // I used this function to implement the actions when the network changes,
-        // including the recalculation and sending of ROUTE packets after a 
-        //    modification satisfying the min_interval time
-        // ...
-
-
-        // Do not forget to call 
-        // route.area_tab_calculated(area, changed);
+    public void network_update(boolean send_ROUTE, int events) {
+        win.Log("network_update(" + area + "): " + events + " change(s)\n");
+        route.request_spf(area, send_ROUTE ? Routing.SPF_SEND : Routing.SPF_ONLY);
     }
 
 }
@@ -19,12 +19,21 @@ import java.util.Iterator;
 public final class RoutingTable {
     /** Routing table object */
     private final HashMap<Character,RouteEntry> rtab;
+    /** true if the table is a published snapshot, which cannot be modified */
+    private boolean frozen;
+    /** Version number of the snapshot; 0 if not published */
+    private long version;
+    /** Order independent fingerprint of the contents (sum of RouteEntry.hash64) */
+    private long fingerprint;
     
     /**
      * Constructor
      */
     public RoutingTable() {
         rtab= new HashMap<>();
+        frozen= false;
+        version= 0;
+        fingerprint= 0;
     }
 
     /**
@@ -33,6 +42,9 @@ public final class RoutingTable {
      */
     public RoutingTable(RoutingTable src) {
         rtab= new HashMap<>();
+        frozen= false;
+        version= 0;
+        fingerprint= 0;
         merge_table(src, ' ');
     }
     
@@ -44,9 +56,81 @@ public final class RoutingTable {
         return (rtab!=null);
     }
     
+    /**
+     * Make the table read-only, to be published as a snapshot that may be 
+     *  read concurrently without locking
+     * @param version  version number of the snapshot
+     */
+    public void freeze(long version) {
+        this.version= version;
+        frozen= true;
+    }
+    
+    /**
+     * Check if the table is a read-only snapshot
+     * @return true if it cannot be modified
+     */
+    public boolean is_frozen() {
+        return frozen;
+    }
+    
+    /**
+     * Return the version number of the snapshot
+     * @return version number, or 0 if the table was not published
+     */
+    public long version() {
+        return version;
+    }
+    
+    /**
+     * Throw an exception if the table is a read-only snapshot
+     */
+    private void check_mutable() {
+        if (frozen)
+            throw new IllegalStateException("Routing table snapshot "+version+" is read-only");
+    }
+    
+    /**
+     * Return the fingerprint of the table contents
+     * @return order independent 64 bit hash of all the routes
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+    
     public void clear() {
+        check_mutable();
         if (rtab!=null)
             rtab.clear();
+        fingerprint= 0;
+    }
+    
+    /**
+     * Store a route, updating the fingerprint
+     * @param re  RouteEntry object
+     */
+    private void put_route(RouteEntry re) {
+        RouteEntry old= rtab.put(re.dest, re);
+        if (old != null)
+            fingerprint-= old.hash64();
+        fingerprint+= re.hash64();
+    }
+    
+    /**
+     * Change the distance of the route to dest, updating the fingerprint
+     * @param dest  destination address
+     * @param dist  new distance
+     * @return true if the route exists, false otherwise
+     */
+    public boolean update_dist(char dest, int dist) {
+        check_mutable();
+        RouteEntry re= rtab.get(dest);
+        if (re == null)
+            return false;
+        fingerprint-= re.hash64();
+        re.update_dist(dist);
+        fingerprint+= re.hash64();
+        return true;
     }
     
     /**
@@ -54,7 +138,8 @@ public final class RoutingTable {
      * @param re RouteEntry object
      */
     public void add_route(RouteEntry re) {
-        rtab.put(re.dest, re);
+        check_mutable();
+        put_route(re);
     }
     
     /**
@@ -63,13 +148,33 @@ public final class RoutingTable {
      * @param exclude_area  Exclude area, ' ' does not exclude any area
      */
     public void merge_table(RoutingTable rt, char exclude_area) {
+        check_mutable();
         if ((rt == null) || !rt.is_valid())
             return;
         for (RouteEntry re: rt.rtab.values()) {
             RouteEntry aux= rtab.get(re.dest);
             if ((re.next_hop_area != exclude_area) && 
                     ((aux==null) || (re.dist < aux.dist)))
-                rtab.put(re.dest, new RouteEntry(re));
+                put_route(new RouteEntry(re));
+        }
+    }
+    
+    /**
+     * Merge an area routing table - select the shortest distance; equal 
+     *  distances are resolved by the order of the areas, so the result does
+     *  not depend on the order in which the area tables are merged
+     * @param rt     Routing table of an area
+     * @param order  areas, by decreasing preference
+     */
+    public void merge_area_table(RoutingTable rt, String order) {
+        check_mutable();
+        if ((rt == null) || !rt.is_valid())
+            return;
+        for (RouteEntry re: rt.rtab.values()) {
+            RouteEntry aux= rtab.get(re.dest);
+            if ((aux==null) || (re.dist < aux.dist) || ((re.dist == aux.dist) && 
+                    (order.indexOf(re.next_hop_area) < order.indexOf(aux.next_hop_area))))
+                put_route(new RouteEntry(re));
         }
     }
     
@@ -117,7 +222,7 @@ public final class RoutingTable {
      */
     public char nextHop(char dest) {
         RouteEntry re= get_RouteEntry(dest);
-        if (!is_valid())
+        if (re == null)
             return ' ';
         return re.next_hop;
     }
@@ -133,27 +238,55 @@ public final class RoutingTable {
     }
     
     /**
-     * Compare the local routing tables with rt
+     * Compare the local routing tables with rt. Tables with different sizes
+     *  or fingerprints are different; when the fingerprints match, the 
+     *  routes are compared one by one, so a collision is never taken as
+     *  equal
      * @param rt - routing table
      * @return true if rt is equal to rtab and not null, false otherwise
      */
     public boolean equal_RoutingTable(RoutingTable rt) {
-        if ((rt == null) || !rt.is_valid() || is_valid() )
+        if ((rt == null) || !rt.is_valid() || !is_valid() )
             return false;
-        HashMap<Character, RouteEntry> map= rt.rtab;
-        if (rtab.size() != map.size()) {
+        if (rt == this)
+            return true;
+        if ((rtab.size() != rt.rtab.size()) || (fingerprint != rt.fingerprint))
             return false;
-        }
-        Iterator<RouteEntry> it= rt.iterator();
-        while (it.hasNext()) {
-            RouteEntry re= it.next();
-            if (!re.equals_to(rtab.get(re.dest))) {
+        for (RouteEntry re: rtab.values()) {
+            if (!re.equals_to(rt.rtab.get(re.dest)))
                 return false;
-            }                
-        }      
+        }
         return true;
     } 
     
+    /**
+     * Calculate the differences from a previous routing table to this one
+     * @param old  previous routing table, or null
+     * @return the routes added, removed and modified
+     */
+    public RoutingTableDiff diff(RoutingTable old) {
+        RoutingTableDiff d= new RoutingTableDiff();
+        if (equal_RoutingTable(old)) {
+            return d;
+        }
+        HashMap<Character, RouteEntry> prev= ((old != null) && old.is_valid()) ? 
+                old.rtab : new HashMap<Character, RouteEntry>();
+        for (RouteEntry re: rtab.values()) {
+            RouteEntry old_re= prev.get(re.dest);
+            if (old_re == null) {
+                d.added.add(re);
+            } else if (!re.equals_to(old_re)) {
+                d.add_modified(re, old_re);
+            }
+        }
+        for (RouteEntry old_re: prev.values()) {
+            if (!rtab.containsKey(old_re.dest)) {
+                d.removed.add(old_re);
+            }
+        }
+        return d;
+    }
+    
     /**
      * Log the content of a routing table object
      * @param log Logging object
@@ -0,0 +1,115 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * RoutingTableDiff.java
+ *
+ * Differences between two routing tables
+ *
+ * Created on 17 de Outubro de 2026, 06:08
+ */
+
+package router;
+
+import java.util.ArrayList;
+
+/**
+ * Result of the comparison of a routing table with a previous one: the
+ * routes added, removed and modified, with the RouteEntry objects of the
+ * new table (removed routes hold the entries of the previous table).
+ */
+public class RoutingTableDiff {
+    /** Routes to destinations not present in the previous table */
+    public final ArrayList<RouteEntry> added;
+    /** Routes of the previous table to destinations no longer present */
+    public final ArrayList<RouteEntry> removed;
+    /** Routes whose distance, next hops, alternate or area changed */
+    public final ArrayList<RouteEntry> modified;
+    /** true if any change affects the forwarding (next hops or alternate) */
+    private boolean forwarding_changed;
+
+    /**
+     * Constructor - creates an empty difference
+     */
+    public RoutingTableDiff() {
+        added= new ArrayList<>();
+        removed= new ArrayList<>();
+        modified= new ArrayList<>();
+        forwarding_changed= false;
+    }
+
+    /**
+     * Register a route that changed
+     * @param re      route of the new table
+     * @param old_re  route of the previous table
+     */
+    void add_modified(RouteEntry re, RouteEntry old_re) {
+        modified.add(re);
+        if ((re.next_hop != old_re.next_hop) || (re.alt_hop != old_re.alt_hop)
+                || (re.n_hops() != old_re.n_hops())) {
+            forwarding_changed= true;
+        } else {
+            for (int i= 0; i<re.n_hops(); i++) {
+                if (re.next_hop(i) != old_re.next_hop(i)) {
+                    forwarding_changed= true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Test if the tables are equal
+     * @return true if no route was added, removed or modified
+     */
+    public boolean is_empty() {
+        return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+
+    /**
+     * Test if the forwarding of any destination changed
+     * @return true if a route was added or removed, or a next hop changed
+     */
+    public boolean forwarding_changed() {
+        return forwarding_changed || !added.isEmpty() || !removed.isEmpty();
+    }
+
+    /**
+     * Return the number of routes changed
+     * @return number of routes added, removed or modified
+     */
+    public int size() {
+        return added.size() + removed.size() + modified.size();
+    }
+
+    /**
+     * Return a string with the destinations changed
+     * @return string with the format "+added -removed ~modified"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb= new StringBuilder();
+        append(sb, '+', added);
+        append(sb, '-', removed);
+        append(sb, '~', modified);
+        return sb.toString();
+    }
+
+    /**
+     * Append a list of destinations to a string
+     * @param sb    string builder
+     * @param tag   character that identifies the list
+     * @param list  list of routes
+     */
+    private static void append(StringBuilder sb, char tag, ArrayList<RouteEntry> list) {
+        if (list.isEmpty()) {
+            return;
+        }
+        if (sb.length() > 0) {
+            sb.append(' ');
+        }
+        sb.append(tag);
+        for (RouteEntry re : list) {
+            sb.append(re.dest);
+        }
+    }
+}
@@ -0,0 +1,651 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * SpfEngine.java
+ *
+ * Dijkstra shortest path first calculation using Dial's bucket queue
+ *
+ * Created on 17 de Outubro de 2026, 05:56
+ */
+
+package router;
+
+/**
+ * Shortest path first engine for a single area.
+ * Link costs are small integers bounded by Router.MAX_DISTANCE, so the
+ * tentative list is a bucket queue (Dial's algorithm) with one bucket per
+ * distance value. All the per-node state is kept in primitive arrays indexed
+ * by router address, and is reused between runs. The topology is read from
+ * the compact CSR graph of the area (LinkStateGraph).
+ * The shortest path tree of the last run is kept, so when only a few ROUTE
+ * vectors change the tree can be updated incrementally (iSPF): only the
+ * nodes below a modified router are recalculated. Modified routers are
+ * detected by the version number of their row in the graph. Equal cost paths are
+ * kept as a bit mask of next hops per node. When the modifications
+ * cannot change the shape of the tree (e.g. the cost of the link to a stub
+ * router) the distances are patched directly (partial route calculation).
+ * Optionally, a loop-free alternate next hop (RFC 5286) is calculated for
+ * each destination, using the distances from each neighbour of the root;
+ * this costs more than one SPF run, so the partial route calculation is
+ * only used when the alternates are not calculated.
+ */
+public class SpfEngine {
+    /** Distance value used for unreachable nodes */
+    public final static int INFINITE = Integer.MAX_VALUE;
+    /** Empty bucket/list marker */
+    private final static int NIL = -1;
+
+    /** Last run: the vectors did not change */
+    public final static int SPF_NONE = 0;
+    /** Last run: distances patched without running SPF */
+    public final static int SPF_PARTIAL = 1;
+    /** Last run: shortest path tree updated incrementally */
+    public final static int SPF_INCREMENTAL = 2;
+    /** Last run: complete Dijkstra calculation */
+    public final static int SPF_FULL = 3;
+
+    /** Distance to each node */
+    private final int[] dist = new int[Router.N_ADDR];
+    /** Bit mask with the equal cost next hops to each node */
+    private final int[] hops = new int[Router.N_ADDR];
+    /** true=route is final; false=route is tentative */
+    private final boolean[] ok = new boolean[Router.N_ADDR];
+    /** Bit mask with the predecessors of each node in the shortest path tree */
+    private final int[] pred = new int[Router.N_ADDR];
+    /** Version of each graph row used in the last run */
+    private final int[] seen_ver = new int[Router.N_ADDR];
+    /** Distances proposed during a partial route calculation */
+    private final int[] eff = new int[Router.N_ADDR];
+    /** Loop-free alternate next hop to each node, or NIL */
+    private final int[] alt = new int[Router.N_ADDR];
+    /** Distances from each neighbour of the root to every node */
+    private final int[][] nbr_dist = new int[Router.N_ADDR][Router.N_ADDR];
+    /** Link cost from the root to each neighbour */
+    private final int[] nbr_cost = new int[Router.N_ADDR];
+    /** Final flags of the calculations rooted at the neighbours */
+    private final boolean[] nbr_ok = new boolean[Router.N_ADDR];
+
+    /** First node in each distance bucket */
+    private final int[] bucket = new int[Router.MAX_DISTANCE + 1];
+    /** Next node in the same bucket */
+    private final int[] q_next = new int[Router.N_ADDR];
+    /** Previous node in the same bucket */
+    private final int[] q_prev = new int[Router.N_ADDR];
+
+    /** Topology graph used in the last run */
+    private LinkStateGraph g = null;
+    /** Root node index */
+    private int root = NIL;
+    /** Kind of calculation done in the last run */
+    private int mode = SPF_NONE;
+    /** Number of routes patched by the last partial route calculation */
+    private int patched = 0;
+    /** true if the loop-free alternates are calculated */
+    private final boolean alternates;
+
+    /**
+     * Constructor
+     * @param alternates  if true, calculate loop-free alternate next hops
+     */
+    public SpfEngine(boolean alternates) {
+        this.alternates = alternates;
+        for (int i = 0; i < Router.N_ADDR; i++) {
+            alt[i] = NIL;
+        }
+    }
+
+    /**
+     * Run a complete Dijkstra calculation
+     * @param root_name  local address, root of the shortest path tree
+     * @param area       area of the calculation
+     * @param graph      topology graph of the area, including the root's row
+     * @return the routing table, or null if the root is not valid
+     */
+    public RoutingTable run(char root_name, char area, LinkStateGraph graph) {
+        root = Router.addr_index(root_name);
+        g = graph;
+        if ((root == NIL) || !g.has_row(root)) {
+            return null;
+        }
+        mode = SPF_FULL;
+        for (int i = 0; i < Router.N_ADDR; i++) {
+            seen_ver[i] = g.version(i);
+        }
+        reset();
+
+        dist[root] = 0;
+        hops[root] = 1 << root;
+        push(root);
+        dijkstra();
+        compute_alternates();
+        return make_table(area);
+    }
+
+    /**
+     * Update the shortest path tree of the last run (incremental SPF).
+     * The nodes whose vector changed are detected by comparing the version
+     * of their graph row with the one used in the last run; the subtree
+     * below them is invalidated and recalculated from the unaffected part
+     * of the tree. Falls back to a complete run if there is no previous tree.
+     * @param root_name  local address, root of the shortest path tree
+     * @param area       area of the calculation
+     * @param graph      topology graph of the area, including the root's row
+     * @param last       routing table returned by the last run
+     * @return the routing table; last if the vectors did not change
+     */
+    public RoutingTable run_incremental(char root_name, char area,
+            LinkStateGraph graph, RoutingTable last) {
+        if ((last == null) || (root == NIL) || (g != graph)
+                || (root != Router.addr_index(root_name))) {
+            return run(root_name, area, graph);
+        }
+        if (!g.has_row(root)) {
+            return null;
+        }
+        int changed = 0;
+        for (int i = 0; i < Router.N_ADDR; i++) {
+            if (seen_ver[i] != g.version(i)) {
+                seen_ver[i] = g.version(i);
+                changed |= 1 << i;
+            }
+        }
+        if (changed == 0) {
+            mode = SPF_NONE;
+            return last;
+        }
+        // The alternates need the distances from every neighbour, which
+        // the partial route calculation would have to recalculate
+        RoutingTable patched_tab = alternates ? null : partial(changed, last);
+        if (patched_tab != null) {
+            mode = SPF_PARTIAL;
+            return patched_tab;
+        }
+
+        // Invalidate every node reached through a modified node
+        int inv = 0;
+        for (int v = 0; v < Router.N_ADDR; v++) {
+            if (ok[v] && ((pred[v] & changed) != 0)) {
+                inv |= 1 << v;
+            }
+        }
+        boolean grown = (inv != 0);
+        while (grown) {
+            grown = false;
+            for (int v = 0; v < Router.N_ADDR; v++) {
+                if (ok[v] && ((inv & (1 << v)) == 0) && ((pred[v] & inv) != 0)) {
+                    inv |= 1 << v;
+                    grown = true;
+                }
+            }
+        }
+        for (int v = 0; v < Router.N_ADDR; v++) {
+            if ((inv & (1 << v)) != 0) {
+                dist[v] = INFINITE;
+                hops[v] = 0;
+                ok[v] = false;
+                pred[v] = 0;
+            }
+        }
+
+        // Reattach the invalidated nodes to the rest of the tree
+        if (inv != 0) {
+            for (int u = 0; u < Router.N_ADDR; u++) {
+                if (!ok[u]) {
+                    continue;
+                }
+                for (int k = g.row_start[u]; k < g.row_start[u + 1]; k++) {
+                    if ((inv & (1 << g.col[k])) != 0) {
+                        relax(u, g.col[k], g.cost[k]);
+                    }
+                }
+            }
+        }
+        // Modified nodes may offer shorter paths to the others
+        for (int u = 0; u < Router.N_ADDR; u++) {
+            if (ok[u] && ((changed & (1 << u)) != 0)) {
+                relax(u);
+            }
+        }
+        mode = SPF_INCREMENTAL;
+        dijkstra();
+        compute_alternates();
+        return make_table(area);
+    }
+
+    /**
+     * Return the kind of calculation done in the last run
+     * @return SPF_NONE, SPF_PARTIAL, SPF_INCREMENTAL or SPF_FULL
+     */
+    public int last_mode() {
+        return mode;
+    }
+
+    /**
+     * Return the number of routes patched in the last partial calculation
+     * @return number of RouteEntry objects modified
+     */
+    public int last_patched() {
+        return patched;
+    }
+
+    /**
+     * Partial route calculation: if the modified vectors only change the
+     * cost of the link to leaves of the tree, patch their distance in the
+     * arrays and in the routing table without running SPF.
+     * The new distances are accepted if the optimality conditions hold for
+     * every link leaving a modified or patched node, and for every link
+     * reaching a patched node whose distance increased.
+     * The last table may be read by other threads, so a copy is patched.
+     * Only used without loop-free alternates.
+     * @param changed  bit mask with the nodes whose vector changed
+     * @param last     routing table returned by the last run
+     * @return the patched copy of last, or null if SPF is required
+     */
+    private RoutingTable partial(int changed, RoutingTable last) {
+        int leaves = 0;
+        int increased = 0;
+        System.arraycopy(dist, 0, eff, 0, Router.N_ADDR);
+
+        // Links from the modified nodes to their children
+        for (int x = 0; x < Router.N_ADDR; x++) {
+            if (((changed & (1 << x)) == 0) || !ok[x]) {
+                continue;
+            }
+            int kids = children(x);
+            int seen = 0;
+            for (int k = g.row_start[x]; k < g.row_start[x + 1]; k++) {
+                int v = g.col[k];
+                if ((kids & (1 << v)) == 0) {
+                    continue;
+                }
+                seen |= 1 << v;
+                int nd = dist[x] + g.cost[k];
+                if (nd == dist[v]) {
+                    continue;
+                }
+                if ((pred[v] != (1 << x)) || (children(v) != 0)
+                        || (g.cost[k] == 0) || (nd > Router.MAX_DISTANCE)) {
+                    return null;
+                }
+                eff[v] = nd;
+                leaves |= 1 << v;
+                if (nd > dist[v]) {
+                    increased |= 1 << v;
+                }
+            }
+            if (seen != kids) {
+                // A link of the tree was removed
+                return null;
+            }
+        }
+
+        // Links leaving the modified and patched nodes
+        int check = changed | leaves;
+        for (int u = 0; u < Router.N_ADDR; u++) {
+            if (((check & (1 << u)) == 0) || !ok[u]) {
+                continue;
+            }
+            for (int k = g.row_start[u]; k < g.row_start[u + 1]; k++) {
+                int v = g.col[k];
+                int nd = eff[u] + g.cost[k];
+                if (ok[v] && ((pred[v] & (1 << u)) != 0)) {
+                    if (nd != eff[v]) {
+                        return null;
+                    }
+                } else if (!longer(nd, v)) {
+                    return null;
+                }
+            }
+        }
+        // Links reaching the leaves that are now farther away
+        if (increased != 0) {
+            for (int u = 0; u < Router.N_ADDR; u++) {
+                if (((check & (1 << u)) != 0) || !ok[u]) {
+                    continue;
+                }
+                for (int k = g.row_start[u]; k < g.row_start[u + 1]; k++) {
+                    int v = g.col[k];
+                    if (((increased & (1 << v)) != 0)
+                            && (eff[u] + g.cost[k] <= eff[v])) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        // Patch the distances
+        for (int v = 0; v < Router.N_ADDR; v++) {
+            if (((leaves & (1 << v)) != 0)
+                    && (last.get_RouteEntry(Router.index_addr(v)) == null)) {
+                return null;
+            }
+        }
+        RoutingTable rt = new RoutingTable(last);
+        patched = 0;
+        for (int v = 0; v < Router.N_ADDR; v++) {
+            if ((leaves & (1 << v)) != 0) {
+                dist[v] = eff[v];
+                rt.update_dist(Router.index_addr(v), eff[v]);
+                patched++;
+            }
+        }
+        return rt;
+    }
+
+    /**
+     * Return the children of a node in the shortest path tree
+     * @param u  node index
+     * @return bit mask with the nodes that have u as predecessor
+     */
+    private int children(int u) {
+        int kids = 0;
+        for (int v = 0; v < Router.N_ADDR; v++) {
+            if (ok[v] && ((pred[v] & (1 << u)) != 0)) {
+                kids |= 1 << v;
+            }
+        }
+        return kids;
+    }
+
+    /**
+     * Test if a path is longer than the current path to a node
+     * @param nd  path length
+     * @param v   node index
+     * @return true if nd is longer than the distance to v, or than the
+     *  maximum distance if v is not reachable
+     */
+    private boolean longer(int nd, int v) {
+        return ok[v] ? (nd > eff[v]) : (nd > Router.MAX_DISTANCE);
+    }
+
+    /**
+     * Mark all nodes as tentative with infinite distance and empty the queue
+     */
+    private void reset() {
+        for (int i = 0; i < Router.N_ADDR; i++) {
+            dist[i] = INFINITE;
+            hops[i] = 0;
+            ok[i] = false;
+            pred[i] = 0;
+            q_next[i] = NIL;
+            q_prev[i] = NIL;
+        }
+        for (int d = 0; d < bucket.length; d++) {
+            bucket[d] = NIL;
+        }
+    }
+
+    /**
+     * Main loop - visit buckets by increasing distance, making each node
+     * final when it is removed from the queue
+     */
+    private void dijkstra() {
+        for (int d = 0; d < bucket.length; d++) {
+            while (bucket[d] != NIL) {
+                int u = bucket[d];
+                unlink(u);
+                ok[u] = true;
+                relax(u);
+            }
+        }
+    }
+
+    /**
+     * Relax all the links of node u
+     * @param u  index of a final node
+     */
+    private void relax(int u) {
+        for (int k = g.row_start[u]; k < g.row_start[u + 1]; k++) {
+            relax(u, g.col[k], g.cost[k]);
+        }
+    }
+
+    /**
+     * Relax the link from u to v. A final node is only reopened when a
+     * shorter path is found, which only happens during incremental updates.
+     * @param u  index of a final node
+     * @param v     index of the link's destination
+     * @param cost  link cost
+     */
+    private void relax(int u, int v, int cost) {
+        int nd = dist[u] + cost;
+        if ((nd > Router.MAX_DISTANCE) || (nd > dist[v])) {
+            return;
+        }
+        int h = (u == root) ? (1 << v) : hops[u];
+        if (nd == dist[v]) {
+            // Equal cost path - a final node is reopened to propagate the
+            // new next hops to the nodes below it
+            pred[v] |= 1 << u;
+            if ((hops[v] | h) != hops[v]) {
+                hops[v] |= h;
+                if (ok[v]) {
+                    ok[v] = false;
+                    push(v);
+                }
+            }
+            return;
+        }
+        if (ok[v]) {
+            ok[v] = false;
+        } else if (dist[v] != INFINITE) {
+            unlink(v);
+        }
+        dist[v] = nd;
+        hops[v] = h;
+        pred[v] = 1 << u;
+        push(v);
+    }
+
+    /**
+     * Calculate the loop-free alternate next hop of every destination.
+     * A neighbour N, which is not a primary next hop to D, is loop-free if
+     * dist(N,D) &lt; dist(N,root) + dist(root,D). Alternates that also avoid
+     * the primary next hop node are preferred, then the shortest ones.
+     */
+    private void compute_alternates() {
+        for (int i = 0; i < Router.N_ADDR; i++) {
+            alt[i] = NIL;
+        }
+        if (!alternates || !g.has_row(root)) {
+            return;
+        }
+        int nbrs = 0;
+        for (int k = g.row_start[root]; k < g.row_start[root + 1]; k++) {
+            int n = g.col[k];
+            if (g.has_row(n)) {
+                nbr_cost[n] = g.cost[k];
+                nbrs |= 1 << n;
+                distances_from(n, nbr_dist[n]);
+            }
+        }
+        if (Integer.bitCount(nbrs) < 2) {
+            return;
+        }
+        for (int d = 0; d < Router.N_ADDR; d++) {
+            if (!ok[d] || (d == root)) {
+                continue;
+            }
+            int best_cost = INFINITE;
+            boolean best_np = false;
+            for (int n = 0; n < Router.N_ADDR; n++) {
+                if (((nbrs & (1 << n)) == 0) || ((hops[d] & (1 << n)) != 0)) {
+                    continue;
+                }
+                int dnd = nbr_dist[n][d];
+                if ((dnd == INFINITE) || (nbr_cost[n] + dnd > Router.MAX_DISTANCE)) {
+                    continue;
+                }
+                int dns = nbr_dist[n][root];
+                if ((dns != INFINITE) && (dnd >= dns + dist[d])) {
+                    continue;   // Could loop back through the root
+                }
+                boolean np = node_protecting(n, d, nbrs);
+                int cost = nbr_cost[n] + dnd;
+                if ((np && !best_np) || ((np == best_np) && (cost < best_cost))) {
+                    alt[d] = n;
+                    best_cost = cost;
+                    best_np = np;
+                }
+            }
+        }
+    }
+
+    /**
+     * Test if the path from neighbour n to d avoids all the primary next hops
+     * @param n     neighbour index
+     * @param d     destination index
+     * @param nbrs  bit mask with the neighbours with known distances
+     * @return true if dist(n,d) &lt; dist(n,e) + dist(e,d) for every primary
+     *  next hop e
+     */
+    private boolean node_protecting(int n, int d, int nbrs) {
+        int mask = hops[d];
+        if ((mask & (1 << d)) != 0) {
+            return false;   // d is a primary next hop
+        }
+        for (int e = 0; e < Router.N_ADDR; e++) {
+            if ((mask & (1 << e)) == 0) {
+                continue;
+            }
+            if (((nbrs & (1 << e)) == 0) || (nbr_dist[e][d] == INFINITE)) {
+                return false;
+            }
+            int dne = nbr_dist[n][e];
+            if ((dne != INFINITE) && (nbr_dist[n][d] >= dne + nbr_dist[e][d])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calculate the distances from a node to all the others (Dial's algorithm
+     * without next hops), using the graph of the last run
+     * @param src  source node index
+     * @param d    array where the distances are stored
+     */
+    private void distances_from(int src, int[] d) {
+        for (int i = 0; i < Router.N_ADDR; i++) {
+            d[i] = INFINITE;
+            nbr_ok[i] = false;
+        }
+        d[src] = 0;
+        push(src, d);
+        for (int b = 0; b < bucket.length; b++) {
+            while (bucket[b] != NIL) {
+                int u = bucket[b];
+                unlink(u, d);
+                nbr_ok[u] = true;
+                for (int k = g.row_start[u]; k < g.row_start[u + 1]; k++) {
+                    int v = g.col[k];
+                    if (nbr_ok[v]) {
+                        continue;
+                    }
+                    int nd = d[u] + g.cost[k];
+                    if ((nd > Router.MAX_DISTANCE) || (nd >= d[v])) {
+                        continue;
+                    }
+                    if (d[v] != INFINITE) {
+                        unlink(v, d);
+                    }
+                    d[v] = nd;
+                    push(v, d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the alternate next hop address of a node
+     * @param v  node index
+     * @return alternate next hop address, or ' ' if there is none
+     */
+    private char alt_addr(int v) {
+        return (alt[v] == NIL) ? ' ' : Router.index_addr(alt[v]);
+    }
+
+    /**
+     * Insert a tentative node in the bucket of its distance
+     * @param v  node index
+     */
+    private void push(int v) {
+        push(v, dist);
+    }
+
+    /**
+     * Remove a node from its bucket
+     * @param v  node index
+     */
+    private void unlink(int v) {
+        unlink(v, dist);
+    }
+
+    /**
+     * Insert a node in the bucket of its distance
+     * @param v  node index
+     * @param dv distance array
+     */
+    private void push(int v, int[] dv) {
+        int d = dv[v];
+        q_prev[v] = NIL;
+        q_next[v] = bucket[d];
+        if (bucket[d] != NIL) {
+            q_prev[bucket[d]] = v;
+        }
+        bucket[d] = v;
+    }
+
+    /**
+     * Remove a node from its bucket
+     * @param v  node index
+     * @param dv distance array
+     */
+    private void unlink(int v, int[] dv) {
+        if (q_prev[v] != NIL) {
+            q_next[q_prev[v]] = q_next[v];
+        } else {
+            bucket[dv[v]] = q_next[v];
+        }
+        if (q_next[v] != NIL) {
+            q_prev[q_next[v]] = q_prev[v];
+        }
+        q_next[v] = NIL;
+        q_prev[v] = NIL;
+    }
+
+    /**
+     * Build the routing table with all final nodes
+     * @param area  area of the calculation
+     * @return the routing table
+     */
+    private RoutingTable make_table(char area) {
+        RoutingTable rt = new RoutingTable();
+        for (int i = 0; i < Router.N_ADDR; i++) {
+            if (ok[i]) {
+                RouteEntry re = new RouteEntry(Router.index_addr(i),
+                        hop_list(hops[i]), area, dist[i]);
+                re.alt_hop = alt_addr(i);
+                re.set_final();
+                rt.add_route(re);
+            }
+        }
+        return rt;
+    }
+
+    /**
+     * Convert a next hop bit mask into a list of addresses
+     * @param mask  bit mask with the next hops
+     * @return array with up to Router.MAX_ECMP next hops, by address order
+     */
+    private static char[] hop_list(int mask) {
+        char[] list = new char[Math.min(Integer.bitCount(mask), Router.MAX_ECMP)];
+        for (int i = 0; i < list.length; i++) {
+            int b = Integer.numberOfTrailingZeros(mask);
+            list[i] = Router.index_addr(b);
+            mask &= ~(1 << b);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Redes Integradas de Telecomunicacoes I
+ * MIEEC 2017/2018
+ *
+ * SpfScheduler.java
+ *
+ * Throttles the route calculation and ROUTE sending after network changes
+ *
+ * Created on 17 de Outubro de 2026, 06:02
+ */
+
+package router;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Exponential SPF throttling for one area, similar to OSPF SPF throttling.
+ * The first change after a quiet period is handled after a short initial
+ * delay; changes arriving while a calculation is pending are coalesced into
+ * it. Consecutive calculations are separated by a hold time that doubles up
+ * to a maximum while the network keeps changing, and returns to the minimum
+ * after a quiet period of twice the current hold time.
+ */
+public class SpfScheduler {
+    /** Routing process that runs the calculation */
+    private final RoutingProcess rp;
+    /** Single shot timer that triggers the calculation */
+    private final LoopTimer timer;
+    /** Delay before handling the first change after a quiet period (ms) */
+    private final int start_delay;
+    /** Minimum hold time between calculations (ms) */
+    private final int min_hold;
+    /** Maximum hold time between calculations (ms) */
+    private final int max_hold;
+
+    /** Current hold time (ms) */
+    private int hold;
+    /** Time of the last calculation (ms, monotonic), or -1 if none */
+    private long last_run;
+    /** true if a calculation is scheduled */
+    private boolean pending;
+    /** true if the scheduled calculation must send a ROUTE packet */
+    private boolean send_ROUTE;
+    /** Number of changes coalesced into the scheduled calculation */
+    private int events;
+
+    /**
+     * Constructor
+     * @param rp           routing process of the area
+     * @param start_delay  initial delay (ms)
+     * @param min_hold     minimum hold time (ms)
+     * @param max_hold     maximum hold time (ms)
+     */
+    public SpfScheduler(RoutingProcess rp, int start_delay, int min_hold, int max_hold) {
+        this.rp = rp;
+        this.start_delay = start_delay;
+        this.min_hold = Math.max(min_hold, start_delay);
+        this.max_hold = Math.max(max_hold, this.min_hold);
+        this.hold = this.min_hold;
+        this.last_run = -1;
+        this.pending = false;
+        this.send_ROUTE = false;
+        this.events = 0;
+        this.timer = new LoopTimer(rp.loop(), start_delay, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent evt) {
+                run();
+            }
+        });
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Register a network change, scheduling a calculation if none is pending
+     * @param send_ROUTE if true the calculation must send a ROUTE packet
+     */
+    public synchronized void schedule(boolean send_ROUTE) {
+        this.send_ROUTE |= send_ROUTE;
+        events++;
+        if (pending) {
+            return;     // Coalesced into the pending calculation
+        }
+        long now = Router.now_ms();
+        int delay = start_delay;
+        if ((last_run < 0) || ((now - last_run) >= 2L * hold)) {
+            // Quiet period - fast reaction
+            hold = min_hold;
+        } else {
+            delay = (int) Math.max(start_delay, last_run + hold - now);
+        }
+        pending = true;
+        timer.setInitialDelay(delay);
+        timer.restart();
+    }
+
+    /**
+     * Stop the scheduler, discarding any pending calculation
+     */
+    public synchronized void stop() {
+        timer.stop();
+        pending = false;
+        send_ROUTE = false;
+        events = 0;
+    }
+
+    /**
+     * Handle the timer - run the calculation and update the hold time
+     */
+    private void run() {
+        boolean send;
+        int n;
+        synchronized (this) {
+            if (!pending) {
+                return;
+            }
+            long now = Router.now_ms();
+            if ((last_run >= 0) && ((now - last_run) < 2L * hold)) {
+                // Network still changing - back off
+                hold = Math.min(2 * hold, max_hold);
+            }
+            last_run = now;
+            send = send_ROUTE;
+            n = events;
+            pending = false;
+            send_ROUTE = false;
+            events = 0;
+        }
+        rp.network_update(send, n);
+    }
+}